@@ -0,0 +1,62 @@
+package benchmark;
+
+/**
+ * One benchmark, run by BenchmarkRunner for every combination of parameters.
+ *
+ * setUp() is called once per combination and is not timed, run() is one timed operation.
+ * Whatever run() returns is kept by the runner so the JIT can't throw the work away.
+ */
+public abstract class Benchmark {
+	private final String name;
+
+	protected Benchmark(String name) {
+		this.name = name;
+	}
+
+	public String getName() { return name; }
+
+	/**
+	 * False skips a combination, e.g. one that would need gigabytes of samples
+	 */
+	public boolean supports(Parameters parameters) {
+		return true;
+	}
+
+	/**
+	 * False if replication doesn't change the work, so it only runs for the first value
+	 */
+	public boolean usesReplication() {
+		return true;
+	}
+
+	public abstract void setUp(Parameters parameters) throws Exception;
+
+	public abstract Object run() throws Exception;
+
+	public void tearDown() throws Exception {
+	}
+
+	/**
+	 * The parameters a benchmark is swept over
+	 */
+	public static class Parameters {
+		public final int payloadSize;
+		public final int transmissionSpeed;
+		public final int replication;
+
+		public Parameters(int payloadSize, int transmissionSpeed, int replication) {
+			this.payloadSize = payloadSize;
+			this.transmissionSpeed = transmissionSpeed;
+			this.replication = replication;
+		}
+
+		public long numSymbols() {
+			return ((long)payloadSize * 8 + transmissionSpeed - 1) / transmissionSpeed;
+		}
+
+		@Override
+		public String toString() {
+			return "payload=" + payloadSize + " ts=" + transmissionSpeed + " replication=" + replication;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package benchmark;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the sender and receiver benchmarks over every combination of payload size,
+ * transmissionSpeed and replication, and prints throughput plus GC numbers for each.
+ *
+ * Each combination gets warmup iterations (so the JIT has compiled the hot loops) followed by
+ * measured iterations, each of which repeats run() for at least iterationMillis.  Alongside
+ * ops/s and payload MB/s it reports the bytes allocated per operation (where the JVM can count
+ * them per thread) and the collections and GC time spent during the measured iterations.
+ *
+ * Usage: BenchmarkRunner [-p payload=1024,65536] [-p ts=1,2,4] [-p replication=1,441]
+ *                        [-w warmups] [-i iterations] [-t iterationMillis] [name regex]
+ */
+public class BenchmarkRunner {
+	private int[] payloadSizes = {1024, 65536};
+	private int[] transmissionSpeeds = {1, 2, 4};
+	private int[] replications = {1, 441};
+	private int warmupIterations = 3;
+	private int measuredIterations = 5;
+	private long iterationMillis = 500;
+	private Pattern filter = Pattern.compile(".*");
+
+	//Results go here
+	private final PrintStream out = System.out;
+	//Keeps results alive so the JIT can't drop the work
+	private int sink;
+
+	public static void main(String[] args) throws Exception {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		runner.parseArguments(args);
+
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.addAll(Arrays.asList(SenderBenchmarks.all()));
+		benchmarks.addAll(Arrays.asList(ReceiverBenchmarks.all()));
+		runner.run(benchmarks);
+	}
+
+	private void parseArguments(String[] args) {
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-p")) {
+				String[] parameter = args[++i].split("=");
+				int[] values = parseList(parameter[1]);
+				if(parameter[0].equals("payload")) payloadSizes = values;
+				else if(parameter[0].equals("ts")) transmissionSpeeds = values;
+				else if(parameter[0].equals("replication")) replications = values;
+				else throw new IllegalArgumentException("Unknown parameter " + parameter[0]);
+			} else if(args[i].equals("-w")) {
+				warmupIterations = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-i")) {
+				measuredIterations = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-t")) {
+				iterationMillis = Long.parseLong(args[++i]);
+			} else {
+				filter = Pattern.compile(args[i]);
+			}
+		}
+	}
+
+	private static int[] parseList(String list) {
+		String[] parts = list.split(",");
+		int[] values = new int[parts.length];
+		for(int i = 0; i < parts.length; i++) {
+			values[i] = Integer.parseInt(parts[i].trim());
+		}
+		return values;
+	}
+
+	public void run(List<Benchmark> benchmarks) throws Exception {
+		out.printf("%-24s %-36s %12s %10s %10s %14s %6s %8s%n",
+				"Benchmark", "Parameters", "ops/s", "+-", "MB/s", "alloc B/op", "gc", "gc ms");
+
+		for(Benchmark benchmark : benchmarks) {
+			if(!filter.matcher(benchmark.getName()).find()) continue;
+
+			for(int payloadSize : payloadSizes) {
+				for(int transmissionSpeed : transmissionSpeeds) {
+					int[] sweep = benchmark.usesReplication() ? replications : new int[] {replications[0]};
+					for(int replication : sweep) {
+						Benchmark.Parameters parameters = new Benchmark.Parameters(payloadSize, transmissionSpeed, replication);
+						if(benchmark.supports(parameters)) {
+							measure(benchmark, parameters);
+						}
+					}
+				}
+			}
+		}
+		out.println("(sink " + sink + ")");
+	}
+
+	private void measure(Benchmark benchmark, Benchmark.Parameters parameters) throws Exception {
+		double[] opsPerSecond = new double[measuredIterations];
+		long operations = 0;
+		long allocated = 0;
+		long collections = 0;
+		long gcMillis = 0;
+		try {
+			benchmark.setUp(parameters);
+			for(int i = 0; i < warmupIterations; i++) {
+				iteration(benchmark);
+			}
+
+			long allocatedBefore = allocatedBytes();
+			long collectionsBefore = collectionCount();
+			long gcMillisBefore = collectionMillis();
+			for(int i = 0; i < measuredIterations; i++) {
+				long start = System.nanoTime();
+				long count = iteration(benchmark);
+				opsPerSecond[i] = count / ((System.nanoTime() - start) / 1e9);
+				operations += count;
+			}
+			allocated = allocatedBytes() - allocatedBefore;
+			collections = collectionCount() - collectionsBefore;
+			gcMillis = collectionMillis() - gcMillisBefore;
+		} finally {
+			benchmark.tearDown();
+		}
+
+		double mean = 0;
+		for(double value : opsPerSecond) mean += value;
+		mean /= opsPerSecond.length;
+		double variance = 0;
+		for(double value : opsPerSecond) variance += (value - mean) * (value - mean);
+		double deviation = opsPerSecond.length > 1 ? Math.sqrt(variance / (opsPerSecond.length - 1)) : 0;
+
+		out.printf("%-24s %-36s %12.2f %10.2f %10.2f %14s %6d %8d%n",
+				benchmark.getName(), parameters, mean, deviation,
+				mean * parameters.payloadSize / (1024.0 * 1024.0),
+				allocated < 0 ? "n/a" : String.valueOf(allocated / operations),
+				collections, gcMillis);
+	}
+
+	//Runs the benchmark for at least iterationMillis and returns how many operations that took
+	private long iteration(Benchmark benchmark) throws Exception {
+		long deadline = System.nanoTime() + iterationMillis * 1000000L;
+		long count = 0;
+		do {
+			Object result = benchmark.run();
+			sink += result == null ? 0 : System.identityHashCode(result) & 1;
+			count++;
+		} while(System.nanoTime() < deadline);
+		return count;
+	}
+
+	//-1 if the JVM can't count allocations per thread
+	private static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean)threads;
+			if(hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+				return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	private static long collectionCount() {
+		long total = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, gc.getCollectionCount());
+		}
+		return total;
+	}
+
+	private static long collectionMillis() {
+		long total = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, gc.getCollectionTime());
+		}
+		return total;
+	}
+}
@@ -0,0 +1,185 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import main.ChannelModel;
+import main.LoopbackSimulator;
+import main.SenderParser;
+
+/**
+ * Sweeps transmissionSpeed, sensitivity and replication over a few channel models with
+ * LoopbackSimulator and prints goodput, bit error rate and decode time for each point.
+ *
+ * With -gate, the exit status is 1 if any point on the clean channel doesn't arrive intact
+ * or any point has a bit error rate above -max-ber, so it can run as a regression check.
+ *
+ * With -text the payload is JSON-like text instead of random bytes, which is what -compress
+ * (DEFLATE) can actually shrink.
+ *
+ * Usage: LoopbackBenchmark [-p payload=256] [-p ts=1,2,4] [-p s=250,500] [-p replication=441,882]
+ *                          [-m DIRECT|CASCADE] [-fec parity] [-compress] [-text] [-gate] [-max-ber 0.01]
+ *                          [channel regex]
+ */
+public class LoopbackBenchmark {
+	private int[] payloadSizes = {256};
+	private int[] transmissionSpeeds = {1, 2, 4};
+	private int[] sensitivities = {250, 500};
+	private int[] replications = {441, 882};
+	private int method = SenderParser.DIRECT;
+	private int fecParity = 0;
+	private int compression = SenderParser.COMPRESSION_NONE;
+	private boolean text = false;
+	private boolean gate = false;
+	private double maxBitErrorRate = 1;
+	private String channelFilter = ".*";
+
+	public static void main(String[] args) {
+		LoopbackBenchmark benchmark = new LoopbackBenchmark();
+		benchmark.parseArguments(args);
+		System.exit(benchmark.run() ? 0 : 1);
+	}
+
+	private void parseArguments(String[] args) {
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-p")) {
+				String[] parameter = args[++i].split("=");
+				int[] values = parseList(parameter[1]);
+				if(parameter[0].equals("payload")) payloadSizes = values;
+				else if(parameter[0].equals("ts")) transmissionSpeeds = values;
+				else if(parameter[0].equals("s")) sensitivities = values;
+				else if(parameter[0].equals("replication")) replications = values;
+				else throw new IllegalArgumentException("Unknown parameter " + parameter[0]);
+			} else if(args[i].equals("-m")) {
+				method = args[++i].equals("CASCADE") ? SenderParser.CASCADE : SenderParser.DIRECT;
+			} else if(args[i].equals("-fec")) {
+				fecParity = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-compress")) {
+				compression = SenderParser.COMPRESSION_DEFLATE;
+			} else if(args[i].equals("-text")) {
+				text = true;
+			} else if(args[i].equals("-gate")) {
+				gate = true;
+			} else if(args[i].equals("-max-ber")) {
+				maxBitErrorRate = Double.parseDouble(args[++i]);
+			} else {
+				channelFilter = args[i];
+			}
+		}
+	}
+
+	private static int[] parseList(String list) {
+		String[] parts = list.split(",");
+		int[] values = new int[parts.length];
+		for(int i = 0; i < parts.length; i++) {
+			values[i] = Integer.parseInt(parts[i].trim());
+		}
+		return values;
+	}
+
+	static byte[] randomPayload(int size) {
+		byte[] payload = new byte[size];
+		new Random(size).nextBytes(payload);
+		return payload;
+	}
+
+	//Sensor readings as JSON lines, cut to "size" bytes
+	static byte[] textPayload(int size) {
+		Random random = new Random(size);
+		StringBuilder text = new StringBuilder();
+		for(int i = 0; text.length() < size; i++) {
+			text.append(String.format("{\"id\": %d, \"sensor\": \"temperature\", \"value\": %.1f, \"ok\": true}%n",
+					i, 15 + random.nextInt(100) / 10.0));
+		}
+		return Arrays.copyOf(text.toString().getBytes(), size);
+	}
+
+	/**
+	 * The channels every point is run over, the first one has no impairments
+	 */
+	static List<ChannelModel> channels(List<String> names) {
+		int sampleRate = SenderParser.DEFAULT_SAMPLE_RATE;
+		List<ChannelModel> channels = new ArrayList<ChannelModel>();
+
+		channels.add(new ChannelModel(sampleRate));
+		names.add("clean");
+
+		ChannelModel noise = new ChannelModel(sampleRate);
+		noise.setNoiseSnr(6);
+		channels.add(noise);
+		names.add("noise 6dB");
+
+		ChannelModel offset = new ChannelModel(sampleRate);
+		offset.setFrequencyOffset(30);
+		channels.add(offset);
+		names.add("offset 30Hz");
+
+		ChannelModel drift = new ChannelModel(sampleRate);
+		drift.setClockDriftPpm(200);
+		channels.add(drift);
+		names.add("drift 200ppm");
+
+		ChannelModel dropouts = new ChannelModel(sampleRate);
+		dropouts.setDropouts(0.05f, 4096, 64);
+		channels.add(dropouts);
+		names.add("drops 5%x64");
+
+		ChannelModel echo = new ChannelModel(sampleRate);
+		echo.setEcho(441, 0.3f);
+		channels.add(echo);
+		names.add("echo 10ms 0.3");
+
+		ChannelModel room = new ChannelModel(sampleRate);
+		room.setNoiseSnr(12);
+		room.setFrequencyOffset(10);
+		room.setClockDriftPpm(50);
+		room.setEcho(300, 0.2f);
+		channels.add(room);
+		names.add("room");
+
+		return channels;
+	}
+
+	public boolean run() {
+		List<String> names = new ArrayList<String>();
+		List<ChannelModel> channels = channels(names);
+		boolean passed = true;
+
+		System.out.printf("%-14s %7s %3s %5s %5s %9s %10s %10s %9s %8s%n",
+				"Channel", "payload", "ts", "s", "rep", "intact", "goodput", "BER", "decode ms", "xRT");
+
+		for(int c = 0; c < channels.size(); c++) {
+			if(!names.get(c).matches(channelFilter)) continue;
+
+			for(int payloadSize : payloadSizes) {
+				byte[] payload = text ? textPayload(payloadSize) : randomPayload(payloadSize);
+
+				for(int ts : transmissionSpeeds) {
+					for(int s : sensitivities) {
+						for(int replication : replications) {
+							LoopbackSimulator simulator = new LoopbackSimulator();
+							simulator.setChannel(channels.get(c));
+							simulator.setM(SenderParser.withCompression(SenderParser.withFec(method, fecParity), compression));
+							simulator.setTs(ts);
+							simulator.setS(s);
+							simulator.setReplication(replication);
+							LoopbackSimulator.Result result = simulator.run(payload);
+
+							System.out.printf("%-14s %7d %3d %5d %5d %9s %10.1f %10.5f %9.2f %8.0f%n",
+									names.get(c), payloadSize, ts, s, replication, result.isIntact() ? "yes" : "NO",
+									result.getGoodput(), result.getBitErrorRate(), result.decodeNanos / 1e6,
+									result.getRealtimeFactor());
+
+							if(c == 0 && !result.isIntact()) passed = false;
+							if(result.getBitErrorRate() > maxBitErrorRate) passed = false;
+						}
+					}
+				}
+			}
+		}
+
+		return passed || !gate;
+	}
+}
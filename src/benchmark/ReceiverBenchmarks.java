@@ -0,0 +1,261 @@
+package benchmark;
+
+import java.io.File;
+
+import main.FftDemodulator;
+import main.FileReceiver;
+import main.GoertzelDemodulator;
+import main.ReceiverParser;
+import main.SenderParser;
+import main.SymbolEncoder;
+import main.ToneDetector;
+
+/**
+ * Receiver side benchmarks.  The receiver works on converted frequencies (bit k for tone k),
+ * so the transmissions here are built as codes straight from the sender's symbols, no audio.
+ * Converted frequencies only hold 31 tones, so DIRECT can't go above a transmissionSpeed of 4.
+ */
+public class ReceiverBenchmarks {
+	static final int MAX_TRANSMISSION_SPEED = 4;
+
+	public static Benchmark[] all() {
+		return new Benchmark[] {
+				new GetFrequencies(),
+				new DecodeData(),
+				new ReceiveAudio(),
+				new ReceiveFile(),
+				new Demodulate("goertzelDemodulator", false),
+				new Demodulate("fftDemodulator", true)
+		};
+	}
+
+	/**
+	 * Locator, descriptor, data and trailing locator of a DIRECT transmission as converted frequencies
+	 */
+	static int[] transmissionCodes(byte[] bytes, int transmissionSpeed) {
+		float lf = SenderBenchmarks.LOW_FREQUENCY;
+		float s = SenderBenchmarks.SENSITIVITY;
+		byte[] descriptor = new SenderParser().createDescriptorBytes(transmissionSpeed, lf, s, SenderParser.DIRECT, bytes.length);
+
+		int locatorLength = SenderParser.transmissionLocator.length;
+		int[] descriptorSymbols = symbols(descriptor, 1);
+		int[] dataSymbols = symbols(bytes, transmissionSpeed);
+		int[] codes = new int[2 * locatorLength + descriptorSymbols.length + dataSymbols.length];
+
+		int index = 0;
+		for(int i = 0; i < locatorLength; i++) {
+			codes[index++] = 1 << Math.round((SenderParser.transmissionLocator[i] - lf) / s);
+		}
+		for(int symbol : descriptorSymbols) {
+			codes[index++] = 1 << symbol;
+		}
+		for(int symbol : dataSymbols) {
+			codes[index++] = 1 << symbol;
+		}
+		for(int i = 0; i < locatorLength; i++) {
+			codes[index++] = codes[i];
+		}
+		return codes;
+	}
+
+	private static int[] symbols(byte[] bytes, int transmissionSpeed) {
+		SymbolEncoder encoder = new SymbolEncoder(transmissionSpeed);
+		int[] symbols = new int[(int)SymbolEncoder.numSymbols(bytes.length, transmissionSpeed)];
+		int count = encoder.encode(bytes, 0, bytes.length, symbols, 0);
+		encoder.finish(symbols, count);
+		return symbols;
+	}
+
+	/**
+	 * One operation looks up the frequencies of every data symbol of the payload
+	 */
+	static class GetFrequencies extends Benchmark {
+		private ReceiverParser rp;
+		private int[] codes;
+
+		GetFrequencies() { super("getFrequencies"); }
+
+		@Override
+		public boolean supports(Parameters parameters) {
+			return parameters.transmissionSpeed <= MAX_TRANSMISSION_SPEED;
+		}
+
+		@Override
+		public boolean usesReplication() {
+			return false;
+		}
+
+		@Override
+		public void setUp(Parameters parameters) {
+			rp = new ReceiverParser();
+			rp.setLf(SenderBenchmarks.LOW_FREQUENCY);
+			rp.setS(SenderBenchmarks.SENSITIVITY);
+			rp.setTs(parameters.transmissionSpeed);
+			codes = transmissionCodes(SenderBenchmarks.payload(parameters.payloadSize), parameters.transmissionSpeed);
+		}
+
+		@Override
+		public Object run() {
+			float sum = 0;
+			for(int code : codes) {
+				float[] frequencies = rp.getFrequencies(code);
+				sum += frequencies[0];
+			}
+			return sum;
+		}
+	}
+
+	static class DecodeData extends Benchmark {
+		private ReceiverParser rp;
+		private float[][] audioMatrix;
+		private Benchmark.Parameters parameters;
+
+		DecodeData() { super("decodeData"); }
+
+		@Override
+		public boolean supports(Parameters parameters) {
+			return parameters.numSymbols() * parameters.replication <= SenderBenchmarks.MAX_SAMPLES;
+		}
+
+		@Override
+		public void setUp(Parameters parameters) {
+			this.parameters = parameters;
+			rp = new ReceiverParser();
+			audioMatrix = new float[][] {
+				new SenderParser().createData(SenderBenchmarks.payload(parameters.payloadSize), parameters.transmissionSpeed,
+						SenderBenchmarks.LOW_FREQUENCY, SenderBenchmarks.SENSITIVITY, parameters.replication)
+			};
+		}
+
+		@Override
+		public Object run() {
+			return rp.decodeData(audioMatrix, parameters.payloadSize, parameters.transmissionSpeed,
+					SenderBenchmarks.LOW_FREQUENCY, SenderBenchmarks.SENSITIVITY);
+		}
+	}
+
+	/**
+	 * One operation receives a whole transmission with a fresh ReceiverParser
+	 */
+	static class ReceiveAudio extends Benchmark {
+		private int[] codes;
+		private int payloadSize;
+
+		ReceiveAudio() { super("receiveAudio"); }
+
+		@Override
+		public boolean supports(Parameters parameters) {
+			return parameters.transmissionSpeed <= MAX_TRANSMISSION_SPEED;
+		}
+
+		@Override
+		public boolean usesReplication() {
+			return false;
+		}
+
+		@Override
+		public void setUp(Parameters parameters) {
+			payloadSize = parameters.payloadSize;
+			codes = transmissionCodes(SenderBenchmarks.payload(parameters.payloadSize), parameters.transmissionSpeed);
+		}
+
+		@Override
+		public Object run() {
+			ReceiverParser rp = new ReceiverParser();
+			rp.setLf(SenderBenchmarks.LOW_FREQUENCY);
+			rp.setS(SenderBenchmarks.SENSITIVITY);
+			rp.setTs(1);
+			rp.receiveAudio(codes);
+			if(rp.getCurrentStage() != ReceiverParser.Stage.FINISH || rp.getSize() != payloadSize) {
+				throw new IllegalStateException("Transmission was not received");
+			}
+			return rp.getDataBuffer();
+		}
+	}
+
+	/**
+	 * One operation decodes a whole WAV file written by createAudioFileStreaming into another
+	 * file.  The demodulator needs a window of at least sampleRate / sensitivity samples, and
+	 * half a symbol is used, so short symbols are skipped.
+	 */
+	static class ReceiveFile extends Benchmark {
+		private File wav;
+		private File decoded;
+		private FileReceiver receiver;
+		private int payloadSize;
+
+		ReceiveFile() { super("receiveFile"); }
+
+		@Override
+		public boolean supports(Parameters parameters) {
+			return parameters.replication >= 2 * SenderParser.DEFAULT_SAMPLE_RATE / SenderBenchmarks.SENSITIVITY
+					&& parameters.numSymbols() * parameters.replication <= SenderBenchmarks.MAX_SAMPLES;
+		}
+
+		@Override
+		public void setUp(Parameters parameters) throws Exception {
+			payloadSize = parameters.payloadSize;
+			wav = File.createTempFile("waveswap-benchmark", ".wav");
+			decoded = File.createTempFile("waveswap-benchmark", ".bin");
+			new SenderParser().createAudioFileStreaming(SenderBenchmarks.payload(payloadSize), wav.getPath(), parameters.transmissionSpeed,
+					SenderBenchmarks.LOW_FREQUENCY, SenderBenchmarks.SENSITIVITY, parameters.replication, SenderParser.DIRECT);
+			receiver = new FileReceiver(SenderBenchmarks.LOW_FREQUENCY, SenderBenchmarks.SENSITIVITY, parameters.replication);
+		}
+
+		@Override
+		public Object run() throws Exception {
+			FileReceiver.Result result = receiver.receive(wav.getPath(), decoded.getPath());
+			if(!result.finished || result.bytesWritten != payloadSize) {
+				throw new IllegalStateException("Transmission was not received");
+			}
+			return result.bytesWritten;
+		}
+
+		@Override
+		public void tearDown() {
+			wav.delete();
+			decoded.delete();
+		}
+	}
+
+	/**
+	 * One operation turns a whole DIRECT transmission's samples into codes.  The detector listens
+	 * to the transmissionSpeed's whole tone plan, so this shows how each one scales with it.
+	 */
+	static class Demodulate extends Benchmark {
+		private final boolean fft;
+		private float[] samples;
+		private ToneDetector detector;
+		private int[] codes;
+
+		Demodulate(String name, boolean fft) {
+			super(name);
+			this.fft = fft;
+		}
+
+		@Override
+		public boolean supports(Parameters parameters) {
+			return parameters.transmissionSpeed <= MAX_TRANSMISSION_SPEED
+					&& parameters.replication >= 2 * SenderParser.DEFAULT_SAMPLE_RATE / SenderBenchmarks.SENSITIVITY
+					&& parameters.numSymbols() * parameters.replication <= SenderBenchmarks.MAX_SAMPLES;
+		}
+
+		@Override
+		public void setUp(Parameters parameters) {
+			samples = new SenderParser().createTransmission(SenderBenchmarks.payload(parameters.payloadSize), parameters.transmissionSpeed,
+					SenderBenchmarks.LOW_FREQUENCY, SenderBenchmarks.SENSITIVITY, parameters.replication, SenderParser.DIRECT)[0];
+			int numTones = Math.max(3, SenderParser.getNumTones(parameters.transmissionSpeed, SenderParser.DIRECT));
+			int window = parameters.replication / 2;
+			detector = fft ? new FftDemodulator(SenderParser.DEFAULT_SAMPLE_RATE, SenderBenchmarks.LOW_FREQUENCY, SenderBenchmarks.SENSITIVITY, numTones, window)
+					: new GoertzelDemodulator(SenderParser.DEFAULT_SAMPLE_RATE, SenderBenchmarks.LOW_FREQUENCY, SenderBenchmarks.SENSITIVITY, numTones, window);
+			detector.setSamplesPerSymbol(parameters.replication);
+			codes = new int[detector.maxCodes(samples.length)];
+		}
+
+		@Override
+		public Object run() {
+			detector.reset();
+			return detector.process(samples, 0, samples.length, codes, 0);
+		}
+	}
+}
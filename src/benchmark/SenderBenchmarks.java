@@ -0,0 +1,169 @@
+package benchmark;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import main.NullSampleSink;
+import main.SenderParser;
+
+/**
+ * Sender side benchmarks: symbol encoding, the two synthesis methods and writing a whole file.
+ */
+public class SenderBenchmarks {
+	static final float LOW_FREQUENCY = 14000;
+	static final float SENSITIVITY = 500;
+	//Synthesis benchmarks skip combinations that would render more samples than this per operation
+	static final long MAX_SAMPLES = 1 << 24;
+
+	static byte[] payload(int size) {
+		byte[] bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		return bytes;
+	}
+
+	public static Benchmark[] all() {
+		return new Benchmark[] {
+				new CreateData(),
+				new CreateSineWave("createSineWaveDirect", SenderParser.DIRECT),
+				new CreateSineWave("createSineWaveBitByBit", SenderParser.BIT_BY_BIT),
+				new CreateSineWave("createSineWaveParallel", SenderParser.DIRECT, new ForkJoinPool()),
+				new CreateAudioFile(),
+				new OpenTransmission()
+		};
+	}
+
+	static class CreateData extends Benchmark {
+		private SenderParser sp;
+		private byte[] bytes;
+		private Benchmark.Parameters parameters;
+
+		CreateData() { super("createData"); }
+
+		@Override
+		public boolean supports(Parameters parameters) {
+			return parameters.numSymbols() * parameters.replication <= MAX_SAMPLES;
+		}
+
+		@Override
+		public void setUp(Parameters parameters) {
+			this.parameters = parameters;
+			this.sp = new SenderParser();
+			this.bytes = payload(parameters.payloadSize);
+		}
+
+		@Override
+		public Object run() {
+			return sp.createData(bytes, parameters.transmissionSpeed, LOW_FREQUENCY, SENSITIVITY, parameters.replication);
+		}
+	}
+
+	static class CreateSineWave extends Benchmark {
+		private final int method;
+		private SenderParser sp;
+		private float[] frequencies;
+		private Benchmark.Parameters parameters;
+
+		private final ForkJoinPool pool;
+
+		CreateSineWave(String name, int method) {
+			this(name, method, null);
+		}
+
+		CreateSineWave(String name, int method, ForkJoinPool pool) {
+			super(name);
+			this.method = method;
+			this.pool = pool;
+		}
+
+		@Override
+		public boolean supports(Parameters parameters) {
+			long symbols = method == SenderParser.BIT_BY_BIT ? (long)parameters.payloadSize * 8 : parameters.numSymbols();
+			return symbols * parameters.replication <= MAX_SAMPLES;
+		}
+
+		@Override
+		public void setUp(Parameters parameters) {
+			this.parameters = parameters;
+			this.sp = new SenderParser();
+			sp.setParallelSynthesis(pool);
+			//Same inputs createAudioFile hands each method
+			if(method == SenderParser.BIT_BY_BIT) {
+				frequencies = sp.createData(payload(parameters.payloadSize), 1, LOW_FREQUENCY, SENSITIVITY, 1);
+			} else {
+				frequencies = sp.createData(payload(parameters.payloadSize), parameters.transmissionSpeed,
+						LOW_FREQUENCY, SENSITIVITY, parameters.replication);
+			}
+		}
+
+		@Override
+		public Object run() {
+			sp.resetOscillators(method == SenderParser.BIT_BY_BIT ? parameters.transmissionSpeed : 1);
+			return sp.createSineWave(frequencies, parameters.transmissionSpeed, LOW_FREQUENCY, SENSITIVITY,
+					parameters.replication, method);
+		}
+	}
+
+	static class CreateAudioFile extends Benchmark {
+		private SenderParser sp;
+		private byte[] bytes;
+		private File file;
+		private Benchmark.Parameters parameters;
+
+		CreateAudioFile() { super("createAudioFile"); }
+
+		@Override
+		public boolean supports(Parameters parameters) {
+			return parameters.numSymbols() * parameters.replication <= MAX_SAMPLES;
+		}
+
+		@Override
+		public void setUp(Parameters parameters) throws Exception {
+			this.parameters = parameters;
+			this.sp = new SenderParser();
+			this.bytes = payload(parameters.payloadSize);
+			this.file = File.createTempFile("waveswap-benchmark", ".wav");
+		}
+
+		@Override
+		public Object run() {
+			sp.createAudioFile(bytes, file.getPath(), parameters.transmissionSpeed, LOW_FREQUENCY, SENSITIVITY,
+					parameters.replication, SenderParser.DIRECT);
+			return file.length();
+		}
+
+		@Override
+		public void tearDown() {
+			file.delete();
+		}
+	}
+
+	//What createAudioFileStreaming does without the file: pulls the whole transmission into a null sink
+	static class OpenTransmission extends Benchmark {
+		private SenderParser sp;
+		private byte[] bytes;
+		private Benchmark.Parameters parameters;
+
+		OpenTransmission() { super("openTransmission"); }
+
+		@Override
+		public boolean supports(Parameters parameters) {
+			return parameters.numSymbols() * parameters.replication <= MAX_SAMPLES;
+		}
+
+		@Override
+		public void setUp(Parameters parameters) {
+			this.parameters = parameters;
+			this.sp = new SenderParser();
+			this.bytes = payload(parameters.payloadSize);
+		}
+
+		@Override
+		public Object run() throws Exception {
+			NullSampleSink sink = new NullSampleSink();
+			sp.openTransmission(bytes, parameters.transmissionSpeed, LOW_FREQUENCY, SENSITIVITY,
+					parameters.replication, SenderParser.DIRECT).writeTo(sink);
+			return sink.getChecksum();
+		}
+	}
+}
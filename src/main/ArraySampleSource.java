@@ -0,0 +1,87 @@
+package main;
+
+/**
+ * Samples that are already rendered, one row per channel, read out interleaved, or summed into
+ * one channel when mixed down.  The samples can come in sections that are read one after the
+ * other, e.g. the locator, descriptor, data and locator of a transmission, so they never have
+ * to be copied into one array.  A section with fewer rows than the source has channels is
+ * silent on the rest.  The rows are read in place, never copied.
+ */
+class ArraySampleSource extends SampleSource {
+	private final float[][][] sections;
+	private final int numChannels;
+	private final int sampleRate;
+	private final boolean mixdown;
+	private final float gain;
+	private int section;
+	private int position;
+
+	ArraySampleSource(float[][] channels, int sampleRate) {
+		this(channels, sampleRate, false);
+	}
+
+	ArraySampleSource(float[][] channels, int sampleRate, boolean mixdown) {
+		this(new float[][][] {channels}, channels.length, sampleRate, mixdown);
+	}
+
+	//With "mixdown" the rows are summed a block at a time as they're read, see WavStreamWriter.writeMixdown
+	ArraySampleSource(float[][][] sections, int numChannels, int sampleRate, boolean mixdown) {
+		this.sections = sections;
+		this.numChannels = numChannels;
+		this.sampleRate = sampleRate;
+		this.mixdown = mixdown;
+		this.gain = mixdown ? mixdownGain(sections) : 1;
+	}
+
+	//WavStreamWriter.mixdownGain over every section
+	private static float mixdownGain(float[][][] sections) {
+		float peak = 0;
+		for(float[][] rows : sections) {
+			for(int i = 0; i < rows[0].length; i++) {
+				float sum = 0;
+				for(float[] row : rows) {
+					sum += row[i];
+				}
+				peak = Math.max(peak, Math.abs(sum));
+			}
+		}
+		return peak > 0 ? 1 / peak : 1;
+	}
+
+	@Override public int getSampleRate() { return sampleRate; }
+	@Override public int getNumChannels() { return mixdown ? 1 : numChannels; }
+
+	@Override
+	public int read(float[] buffer, int offset, int frames) {
+		int written = 0;
+		while(written < frames && section < sections.length) {
+			float[][] rows = sections[section];
+			int length = Math.min(frames - written, rows[0].length - position);
+			if(numChannels == 1) {
+				System.arraycopy(rows[0], position, buffer, offset, length);
+				offset += length;
+			} else if(mixdown) {
+				for(int i = position; i < position + length; i++) {
+					float sum = 0;
+					for(float[] row : rows) {
+						sum += row[i];
+					}
+					buffer[offset++] = sum * gain;
+				}
+			} else {
+				for(int i = position; i < position + length; i++) {
+					for(int c = 0; c < numChannels; c++) {
+						buffer[offset++] = c < rows.length ? rows[c][i] : 0;
+					}
+				}
+			}
+			written += length;
+			position += length;
+			if(position == rows[0].length) {
+				section++;
+				position = 0;
+			}
+		}
+		return written == 0 && frames > 0 ? -1 : written;
+	}
+}
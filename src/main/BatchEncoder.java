@@ -0,0 +1,138 @@
+package main;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Encodes many payloads to files at once on a fixed pool of threads, one per core by default.
+ *
+ * Each Job is a payload, the file it goes to and the TransmissionEncoder to use; jobs with the
+ * same encoder share its WaveformCache.  A job that fails doesn't stop the others, its
+ * exception is in its Result.  The Report has each job's latency and the batch's throughput.
+ */
+public class BatchEncoder implements Closeable {
+	private final ExecutorService pool;
+
+	public BatchEncoder() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public BatchEncoder(int threads) {
+		this.pool = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * Runs every job and waits for all of them to finish.  Results are in the order of "jobs".
+	 */
+	public Report encodeAll(List<Job> jobs) throws InterruptedException {
+		long start = System.nanoTime();
+		List<Future<Result>> futures = new ArrayList<Future<Result>>(jobs.size());
+		for(final Job job : jobs) {
+			futures.add(pool.submit(new Callable<Result>() {
+				@Override
+				public Result call() {
+					long jobStart = System.nanoTime();
+					try {
+						job.encoder.encode(job.payload, job.filePath);
+						return new Result(job, System.nanoTime() - jobStart, null);
+					} catch (Exception e) {
+						return new Result(job, System.nanoTime() - jobStart, e);
+					}
+				}
+			}));
+		}
+
+		List<Result> results = new ArrayList<Result>(jobs.size());
+		for(Future<Result> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException e) {
+				//call() catches everything but Errors
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		return new Report(results, System.nanoTime() - start);
+	}
+
+	//Lets running jobs finish, then stops the threads
+	public void close() {
+		pool.shutdown();
+	}
+
+	public static class Job {
+		public final byte[] payload;
+		public final String filePath;
+		public final TransmissionEncoder encoder;
+
+		public Job(byte[] payload, String filePath, TransmissionEncoder encoder) {
+			this.payload = payload;
+			this.filePath = filePath;
+			this.encoder = encoder;
+		}
+	}
+
+	public static class Result {
+		public final Job job;
+		public final long latencyNanos;
+		public final Exception failure; //null if the file was written
+
+		Result(Job job, long latencyNanos, Exception failure) {
+			this.job = job;
+			this.latencyNanos = latencyNanos;
+			this.failure = failure;
+		}
+
+		public boolean succeeded() { return failure == null; }
+	}
+
+	public static class Report {
+		public final List<Result> results;
+		public final long elapsedNanos;
+
+		Report(List<Result> results, long elapsedNanos) {
+			this.results = Collections.unmodifiableList(results);
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		public int getFailures() {
+			int failures = 0;
+			for(Result result : results) {
+				if(!result.succeeded()) failures++;
+			}
+			return failures;
+		}
+
+		public double getJobsPerSecond() {
+			return results.size() / (elapsedNanos / 1e9);
+		}
+
+		//Payload bytes encoded per second of wall time
+		public double getBytesPerSecond() {
+			long bytes = 0;
+			for(Result result : results) {
+				bytes += result.job.payload.length;
+			}
+			return bytes / (elapsedNanos / 1e9);
+		}
+
+		//Latency of the job at "percentile" (0 to 100), in nanoseconds
+		public long getLatencyPercentile(double percentile) {
+			if(results.isEmpty()) return 0;
+			long[] latencies = new long[results.size()];
+			for(int i = 0; i < latencies.length; i++) {
+				latencies[i] = results.get(i).latencyNanos;
+			}
+			Arrays.sort(latencies);
+			int index = (int)Math.ceil(percentile / 100 * latencies.length) - 1;
+			return latencies[Math.max(0, Math.min(latencies.length - 1, index))];
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package main;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A simulated acoustic channel between a speaker and a microphone, for trying transmission
+ * parameters without either.  apply() runs PCM through, in this order:
+ *
+ * echo             a delayed, attenuated copy of the signal is added (a reflection off a wall)
+ * frequency offset every tone is shifted by frequencyOffset Hz (single sideband, via a Hilbert filter)
+ * noise            white gaussian noise at noiseSnr dB below the signal's power
+ * clock drift      the receiver's sample clock runs clockDriftPpm fast (positive) or slow
+ * dropouts         each block of dropInterval samples loses dropLength samples with probability dropProbability
+ *
+ * Everything is off by default, and the random parts are seeded so runs can be repeated.
+ */
+public class ChannelModel {
+	//Half the length of the Hilbert filter, the full filter has 2 * HILBERT_HALF_LENGTH + 1 taps
+	private static final int HILBERT_HALF_LENGTH = 32;
+
+	private final int sampleRate;
+	private float noiseSnr = Float.POSITIVE_INFINITY;
+	private float frequencyOffset = 0;
+	private float clockDriftPpm = 0;
+	private float dropProbability = 0;
+	private int   dropInterval = 4096;
+	private int   dropLength = 0;
+	private int   echoDelay = 0;
+	private float echoGain = 0;
+	private long  seed = 1;
+
+	public ChannelModel(int sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+	public void setNoiseSnr(float decibels) { this.noiseSnr = decibels; }
+	public void setFrequencyOffset(float hertz) { this.frequencyOffset = hertz; }
+	public void setClockDriftPpm(float ppm) { this.clockDriftPpm = ppm; }
+	public void setDropouts(float probability, int interval, int length) {
+		this.dropProbability = probability;
+		this.dropInterval = interval;
+		this.dropLength = length;
+	}
+	public void setEcho(int delay, float gain) {
+		this.echoDelay = delay;
+		this.echoGain = gain;
+	}
+	public void setSeed(long seed) { this.seed = seed; }
+
+	public int getSampleRate() { return sampleRate; }
+	public float getNoiseSnr() { return noiseSnr; }
+	public float getFrequencyOffset() { return frequencyOffset; }
+	public float getClockDriftPpm() { return clockDriftPpm; }
+	public float getDropProbability() { return dropProbability; }
+	public int getEchoDelay() { return echoDelay; }
+	public float getEchoGain() { return echoGain; }
+
+	/**
+	 * What the microphone hears when "samples" are played.  The input is left alone; the
+	 * output can be shorter or longer than it because of drift and dropouts.
+	 */
+	public float[] apply(float[] samples) {
+		Random random = new Random(seed);
+		float[] out = samples.clone();
+
+		if(echoGain != 0 && echoDelay > 0) {
+			for(int i = out.length - 1; i >= echoDelay; i--) {
+				out[i] += echoGain * samples[i - echoDelay];
+			}
+		}
+		if(frequencyOffset != 0) {
+			out = shiftFrequency(out, frequencyOffset);
+		}
+		if(noiseSnr != Float.POSITIVE_INFINITY) {
+			addNoise(out, random);
+		}
+		if(clockDriftPpm != 0) {
+			out = resample(out, 1 / (1 + clockDriftPpm * 1e-6));
+		}
+		if(dropProbability > 0 && dropLength > 0) {
+			out = drop(out, random);
+		}
+		return out;
+	}
+
+	/**
+	 * Single sideband shift: the analytic signal x + j * hilbert(x) is multiplied by
+	 * e^(j * 2pi * offset * t) and the real part is kept, which moves every frequency by
+	 * "offset" instead of mirroring it the way plain mixing with a cosine would.
+	 */
+	private float[] shiftFrequency(float[] samples, float offset) {
+		float[] taps = hilbertTaps();
+		float[] out = new float[samples.length];
+		double step = 2 * Math.PI * offset / sampleRate;
+
+		for(int n = 0; n < samples.length; n++) {
+			double quadrature = 0;
+			for(int k = 1; k <= HILBERT_HALF_LENGTH; k += 2) {
+				float before = n - k >= 0 ? samples[n - k] : 0;
+				float after = n + k < samples.length ? samples[n + k] : 0;
+				//The filter is odd, h[-k] = -h[k]
+				quadrature += taps[k] * (before - after);
+			}
+			double angle = step * n;
+			out[n] = (float)(samples[n] * Math.cos(angle) - quadrature * Math.sin(angle));
+		}
+		return out;
+	}
+
+	//Only the odd taps of a Hilbert filter are non-zero: 2 / (pi * k), Hamming windowed
+	private static float[] hilbertTaps() {
+		float[] taps = new float[HILBERT_HALF_LENGTH + 1];
+		for(int k = 1; k <= HILBERT_HALF_LENGTH; k += 2) {
+			double window = 0.54 + 0.46 * Math.cos(Math.PI * k / (HILBERT_HALF_LENGTH + 1));
+			taps[k] = (float)(2 / (Math.PI * k) * window);
+		}
+		return taps;
+	}
+
+	private void addNoise(float[] samples, Random random) {
+		double power = 0;
+		for(float sample : samples) {
+			power += sample * sample;
+		}
+		power /= Math.max(1, samples.length);
+		double deviation = Math.sqrt(power / Math.pow(10, noiseSnr / 10));
+		for(int i = 0; i < samples.length; i++) {
+			samples[i] += (float)(random.nextGaussian() * deviation);
+		}
+	}
+
+	//Reads the signal at "ratio" input samples per output sample, linearly interpolated
+	private static float[] resample(float[] samples, double ratio) {
+		if(samples.length == 0) {
+			return samples;
+		}
+		int length = (int)((samples.length - 1) / ratio) + 1;
+		float[] out = new float[length];
+		for(int n = 0; n < length; n++) {
+			double position = n * ratio;
+			int index = (int)position;
+			float fraction = (float)(position - index);
+			float a = samples[index];
+			float b = index + 1 < samples.length ? samples[index + 1] : a;
+			out[n] = a + (b - a) * fraction;
+		}
+		return out;
+	}
+
+	private float[] drop(float[] samples, Random random) {
+		float[] out = new float[samples.length];
+		int length = 0;
+		for(int block = 0; block < samples.length; block += dropInterval) {
+			int end = Math.min(block + dropInterval, samples.length);
+			int start = block;
+			if(random.nextFloat() < dropProbability) {
+				//Lose dropLength samples somewhere in this block
+				int lost = Math.min(dropLength, end - block);
+				int at = block + random.nextInt(end - block - lost + 1);
+				System.arraycopy(samples, block, out, length, at - block);
+				length += at - block;
+				start = at + lost;
+			}
+			System.arraycopy(samples, start, out, length, end - start);
+			length += end - start;
+		}
+		return Arrays.copyOf(out, length);
+	}
+}
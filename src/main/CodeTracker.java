@@ -0,0 +1,75 @@
+package main;
+
+/**
+ * Decides which window codes a ToneDetector emits, so that each symbol comes out once.
+ *
+ * A code is only emitted once it has been seen for "stableWindows" evaluations in a row and
+ * differs from the last code emitted; since the sender never plays the same symbol twice in
+ * a row (that's what the lowFrequency repeat marker is for), that gives one code per symbol.
+ * The one place that isn't true is across section boundaries (e.g. the last descriptor symbol
+ * and the first data symbol), so if the symbol length is known, a code that is held for more
+ * than a symbol is emitted again.
+ */
+final class CodeTracker {
+	private final int windowSize;
+	private final int hop;
+	private final int stableWindows;
+
+	private int candidateCode;
+	private int candidateRuns;
+	private int lastCode;
+
+	private int samplesPerSymbol;
+	private int reemitThreshold;
+	private int heldSamples;
+
+	//Windows of "windowSize" samples are evaluated every "hop" samples
+	CodeTracker(int windowSize, int hop, int stableWindows) {
+		this.windowSize = windowSize;
+		this.hop = hop;
+		this.stableWindows = Math.max(1, stableWindows);
+	}
+
+	int getSamplesPerSymbol() { return samplesPerSymbol; }
+
+	/**
+	 * A code is only seen in full by windows that lie entirely inside its tone, and the first
+	 * stableWindows of those are spent before it is emitted, so a single symbol is held for
+	 * about samplesPerSymbol - windowSize - (stableWindows - 1) * hop samples after it is
+	 * emitted, and two in a row for a symbol more.  The threshold sits halfway between.
+	 */
+	void setSamplesPerSymbol(int samplesPerSymbol) {
+		this.samplesPerSymbol = samplesPerSymbol;
+		this.reemitThreshold = Math.max(hop, samplesPerSymbol + samplesPerSymbol / 2 - windowSize - (stableWindows - 1) * hop);
+	}
+
+	void reset() {
+		candidateCode = 0;
+		candidateRuns = 0;
+		lastCode = 0;
+		heldSamples = 0;
+	}
+
+	//Takes the code of the latest window, true if it should be emitted
+	boolean offer(int code) {
+		if(code == candidateCode) {
+			candidateRuns++;
+		} else {
+			candidateCode = code;
+			candidateRuns = 1;
+		}
+		if(candidateRuns == stableWindows && code != 0 && code != lastCode) {
+			lastCode = code;
+			heldSamples = 0;
+			return true;
+		}
+		if(samplesPerSymbol > 0 && code != 0 && code == lastCode) {
+			heldSamples += hop;
+			if(heldSamples >= reemitThreshold) {
+				heldSamples -= samplesPerSymbol;
+				return true;
+			}
+		}
+		return false;
+	}
+}
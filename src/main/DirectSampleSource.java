@@ -0,0 +1,87 @@
+package main;
+
+import java.io.IOException;
+
+/**
+ * A DIRECT transmission rendered as it is read: the locator, the descriptor, the data and the
+ * locator again.  The locator and descriptor are already rendered sections (usually from a
+ * WaveformCache); the data is synthesized a symbol at a time from a FrequencyCursor, so memory
+ * doesn't depend on the payload and the first samples are ready as soon as this is built.
+ */
+class DirectSampleSource extends SampleSource {
+	private static final int LOCATOR = 0, DESCRIPTOR = 1, DATA = 2, TRAILING_LOCATOR = 3, END = 4;
+
+	private final WaveformCache.Section locator;
+	private final WaveformCache.Section descriptor;
+	private final FrequencyCursor data;
+	private final int replication;
+	private final OscillatorBank oscillators;
+	private final TransmissionMetrics metrics;
+
+	private int section = LOCATOR;
+	private int sectionIndex; //Next sample of a rendered section
+	private float frequency; //Data symbol being played
+	private int symbolRemaining; //Samples of it still to play
+
+	DirectSampleSource(WaveformCache.Section locator, WaveformCache.Section descriptor, FrequencyCursor data,
+			int replication, int sampleRate, TransmissionMetrics metrics) {
+		this.locator = locator;
+		this.descriptor = descriptor;
+		this.data = data;
+		this.replication = replication;
+		this.oscillators = new OscillatorBank(1, sampleRate);
+		this.metrics = metrics;
+	}
+
+	@Override public int getSampleRate() { return oscillators.getSampleRate(); }
+	@Override public int getNumChannels() { return 1; }
+
+	@Override
+	public int read(float[] buffer, int offset, int frames) throws IOException {
+		int n = 0;
+		while(n < frames && section != END) {
+			switch(section) {
+			case LOCATOR:
+				n += copy(locator, buffer, offset + n, frames - n);
+				break;
+			case DESCRIPTOR:
+				n += copy(descriptor, buffer, offset + n, frames - n);
+				break;
+			case DATA:
+				if(symbolRemaining == 0) {
+					if(!data.hasNext()) {
+						if(metrics != null) metrics.addSymbolsSynthesized(data.getNumSymbols());
+						section++;
+						break;
+					}
+					frequency = data.nextFrequency();
+					symbolRemaining = replication;
+				}
+				int length = Math.min(symbolRemaining, frames - n);
+				oscillators.render(0, frequency, buffer, offset + n, length);
+				symbolRemaining -= length;
+				n += length;
+				break;
+			case TRAILING_LOCATOR:
+				//The trailing locator is a copy of the leading one
+				n += copy(locator, buffer, offset + n, frames - n);
+				break;
+			}
+		}
+		return n == 0 && frames > 0 ? -1 : n;
+	}
+
+	//Copies what fits of a rendered section, moving on to the next section at its end
+	private int copy(WaveformCache.Section rendered, float[] buffer, int offset, int frames) {
+		int length = Math.min(frames, rendered.samples.length - sectionIndex);
+		System.arraycopy(rendered.samples, sectionIndex, buffer, offset, length);
+		sectionIndex += length;
+		if(sectionIndex == rendered.samples.length) {
+			//Whatever follows carries on from the section's phase
+			oscillators.setPhase(0, rendered.endPhase);
+			sectionIndex = 0;
+			section++;
+		}
+		return length;
+	}
+}
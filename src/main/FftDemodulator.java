@@ -0,0 +1,198 @@
+package main;
+
+/**
+ * A ToneDetector that looks at every tone of the plan at once with a real FFT, for wide tone
+ * plans and symbols that play several tones together (CASCADE, BIT_BY_BIT mixed down).
+ *
+ * The last windowSize samples are kept in a ring.  Every windowSize / overlap samples the
+ * window is zero padded to a power of two at least twice its length and transformed, and
+ * each tone's power is read from the bins either side of its frequency; with the padding a
+ * tone never loses more than a fifth of its power to falling between bins.  Tones are then
+ * thresholded the same way GoertzelDemodulator does it, and a CodeTracker decides which
+ * window codes are emitted as symbols.
+ *
+ * A hop costs O(N log N) for an N point transform plus a constant per tone, so going from 8
+ * tones to 31 hardly changes it, where the Goertzel bank's cost grows with every tone.  The
+ * FFT tables are shared between instances of the same size (see RealFft), and the ring and
+ * work buffers are allocated up front: process() allocates nothing.
+ */
+public class FftDemodulator implements ToneDetector {
+	public static final int DEFAULT_OVERLAP = 2;
+	public static final int DEFAULT_STABLE_WINDOWS = 2;
+
+	//The same thresholds as GoertzelDemodulator's
+	private static final float RELATIVE_THRESHOLD = 0.3f;
+	private static final float PLAN_ENERGY_THRESHOLD = 0.5f;
+	private static final float SILENCE_ENERGY = 1e-8f;
+
+	private final int sampleRate;
+	private final int windowSize;
+	private final int hop;
+	private final int overlap;
+	private final RealFft fft;
+
+	private float lowFrequency;
+	private float sensitivity;
+	private int numTones;
+	//Bin at or below each tone's frequency, its power is the larger of it and the next bin
+	private final int[] toneBins = new int[31];
+	private final float[] tonePowers = new float[31];
+
+	//The last windowSize samples, oldest at historyIndex once it is full
+	private final float[] history;
+	private int historyIndex;
+	private int untilEvaluation;
+	private final float[] re;
+	private final float[] im;
+
+	private final CodeTracker tracker;
+
+	public FftDemodulator(int sampleRate, float lowFrequency, float sensitivity, int numTones, int windowSize) {
+		this(sampleRate, lowFrequency, sensitivity, numTones, windowSize, DEFAULT_OVERLAP, DEFAULT_STABLE_WINDOWS);
+	}
+
+	public FftDemodulator(int sampleRate, float lowFrequency, float sensitivity, int numTones,
+			int windowSize, int overlap, int stableWindows) {
+		if(overlap < 1 || windowSize < overlap) {
+			throw new IllegalArgumentException("windowSize must be at least overlap");
+		}
+		this.sampleRate = sampleRate;
+		this.windowSize = windowSize;
+		this.overlap = overlap;
+		this.hop = windowSize / overlap;
+		this.fft = RealFft.forSize(Math.max(4, Integer.highestOneBit(2 * windowSize - 1) << 1));
+		this.history = new float[windowSize];
+		this.re = new float[fft.getSize() / 2];
+		this.im = new float[fft.getSize() / 2];
+		this.tracker = new CodeTracker(windowSize, hop, stableWindows);
+
+		setTonePlan(lowFrequency, sensitivity, numTones);
+	}
+
+	@Override
+	public void setTonePlan(float lowFrequency, float sensitivity, int numTones) {
+		if(numTones < 1 || numTones > 31) {
+			throw new IllegalArgumentException("numTones must be between 1 and 31, was " + numTones);
+		}
+		this.lowFrequency = lowFrequency;
+		this.sensitivity = sensitivity;
+		this.numTones = numTones;
+
+		int nyquistBin = fft.getSize() / 2;
+		for(int k = 0; k < numTones; k++) {
+			float bin = (lowFrequency + k * sensitivity) * fft.getSize() / sampleRate;
+			toneBins[k] = Math.max(0, Math.min(nyquistBin - 1, (int)bin));
+		}
+		reset();
+	}
+
+	@Override
+	public void reset() {
+		for(int i = 0; i < history.length; i++) {
+			history[i] = 0;
+		}
+		historyIndex = 0;
+		//The first window is evaluated once it is full, then every hop
+		untilEvaluation = windowSize;
+		tracker.reset();
+	}
+
+	@Override public int getSampleRate() { return sampleRate; }
+	public int getWindowSize() { return windowSize; }
+	public int getHop() { return hop; }
+	public int getFftSize() { return fft.getSize(); }
+	public float getLowFrequency() { return lowFrequency; }
+	public float getSensitivity() { return sensitivity; }
+	@Override public int getNumTones() { return numTones; }
+	public int getSamplesPerSymbol() { return tracker.getSamplesPerSymbol(); }
+
+	//0 turns re-emitting held codes off, see CodeTracker.setSamplesPerSymbol
+	@Override
+	public void setSamplesPerSymbol(int samplesPerSymbol) {
+		tracker.setSamplesPerSymbol(samplesPerSymbol);
+	}
+
+	@Override
+	public int maxCodes(int length) {
+		return length / hop + overlap;
+	}
+
+	@Override
+	public int process(float[] samples, int offset, int length, int[] codes, int codesOffset) {
+		int written = 0;
+		for(int i = offset, end = offset + length; i < end; ) {
+			//Copy up to the next evaluation in one go
+			int n = Math.min(end - i, untilEvaluation);
+			for(int j = 0; j < n; j++) {
+				history[historyIndex++] = samples[i + j];
+				if(historyIndex == windowSize) {
+					historyIndex = 0;
+				}
+			}
+			i += n;
+			untilEvaluation -= n;
+
+			if(untilEvaluation == 0) {
+				untilEvaluation = hop;
+				int code = evaluate();
+				if(tracker.offer(code)) {
+					codes[codesOffset + written++] = code;
+				}
+			}
+		}
+		return written;
+	}
+
+	private int evaluate() {
+		//Unroll the ring oldest first into the packed FFT input, x[2n] in re and x[2n + 1] in im
+		float windowEnergy = 0;
+		for(int n = 0; n < windowSize; n++) {
+			int index = historyIndex + n;
+			float x = history[index < windowSize ? index : index - windowSize];
+			windowEnergy += x * x;
+			if((n & 1) == 0) {
+				re[n >> 1] = x;
+			} else {
+				im[n >> 1] = x;
+			}
+		}
+		if((windowSize & 1) != 0) {
+			im[windowSize >> 1] = 0;
+		}
+		for(int n = (windowSize + 1) >> 1; n < re.length; n++) {
+			re[n] = 0;
+			im[n] = 0;
+		}
+
+		if(windowEnergy < SILENCE_ENERGY * windowSize) {
+			return 0;
+		}
+		fft.transform(re, im);
+
+		//Same scaling as GoertzelDemodulator.evaluate: a pure tone comes out at about 1
+		float scale = 2.0f / (windowEnergy * windowSize);
+		float maxPower = 0;
+		float totalPower = 0;
+		for(int k = 0; k < numTones; k++) {
+			int bin = toneBins[k];
+			float power = Math.max(fft.power(re, im, bin), fft.power(re, im, bin + 1)) * scale;
+			tonePowers[k] = power;
+			totalPower += power;
+			if(power > maxPower) {
+				maxPower = power;
+			}
+		}
+		if(totalPower < PLAN_ENERGY_THRESHOLD) {
+			return 0;
+		}
+
+		int code = 0;
+		float threshold = maxPower * RELATIVE_THRESHOLD;
+		for(int k = 0; k < numTones; k++) {
+			if(tonePowers[k] >= threshold) {
+				code |= 1 << k;
+			}
+		}
+		return code;
+	}
+}
@@ -0,0 +1,130 @@
+package main;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Decodes a transmission from a WAV file, e.g. one written by SenderParser.createAudioFile or
+ * an archived recording, and writes its payload to another file.
+ *
+ * The WAV is read blockSize frames at a time by a WavStreamReader, mixed down to mono if it
+ * has more than one channel, and run through a ToneDetector and a ReceiverParser the
+ * same way LoopbackSimulator does.  Decoded bytes are written to the destination after every
+ * block, so neither the audio nor the payload has to fit in memory.  Decoding stops at the
+ * end of the first transmission.
+ *
+ * The descriptor doesn't say how long a symbol is, so the replication it was sent with has to
+ * be given.  The demodulator listens to every tone of the grid lowFrequency + k * sensitivity
+ * below the file's Nyquist frequency, which covers any tone plan a valid descriptor can ask for.
+ * Only DIRECT and CASCADE can be received, as with LoopbackSimulator.
+ */
+public class FileReceiver {
+	public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+	private final float lowFrequency;
+	private final float sensitivity;
+	private final int   replication;
+	//0 means half a symbol
+	private int windowSize = 0;
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+	private boolean fftDetection = false;
+	private TransmissionMetrics metrics;
+
+	public FileReceiver(float lowFrequency, float sensitivity, int replication) {
+		this.lowFrequency = lowFrequency;
+		this.sensitivity = sensitivity;
+		this.replication = replication;
+	}
+
+	public void setWindowSize(int windowSize) { this.windowSize = windowSize; }
+	public void setBlockSize(int blockSize) { this.blockSize = blockSize; }
+	//An FftDemodulator instead of the GoertzelDemodulator, cheaper for plans of many tones
+	public void setFftDetection(boolean fftDetection) { this.fftDetection = fftDetection; }
+	//Null (the default) turns metrics off, see ReceiverParser.setMetrics
+	public void setMetrics(TransmissionMetrics metrics) { this.metrics = metrics; }
+
+	/**
+	 * Decodes "wavPath" into "outputPath", which is created or overwritten.  A file with no
+	 * complete transmission in it isn't an error: the Result says so, and whatever was decoded
+	 * is still written.
+	 */
+	public Result receive(String wavPath, String outputPath) throws IOException {
+		try (WavStreamReader reader = new WavStreamReader(wavPath);
+				FileChannel output = FileChannel.open(Paths.get(outputPath), StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			int sampleRate = reader.getSampleRate();
+			//Every tone strictly below Nyquist, and at least enough for the locator
+			int nyquistTones = (int)Math.ceil((sampleRate / 2f - lowFrequency) / sensitivity);
+			int locatorTones = Math.round((SenderParser.transmissionHighFrequency - lowFrequency) / sensitivity) + 1;
+			int numTones = Math.min(31, Math.max(locatorTones, nyquistTones));
+			int window = windowSize > 0 ? windowSize : Math.max(2, replication / 2);
+			ToneDetector demodulator = fftDetection ? new FftDemodulator(sampleRate, lowFrequency, sensitivity, numTones, window)
+					: new GoertzelDemodulator(sampleRate, lowFrequency, sensitivity, numTones, window);
+			demodulator.setSamplesPerSymbol(replication);
+
+			ReceiverParser receiver = new ReceiverParser();
+			receiver.setLf(lowFrequency);
+			receiver.setS(sensitivity);
+			receiver.setTs(1);
+			receiver.setMetrics(metrics);
+
+			int channels = reader.getNumChannels();
+			float[] block = new float[blockSize * channels];
+			int[] codes = new int[demodulator.maxCodes(blockSize)];
+			long bytesWritten = 0;
+			long start = System.nanoTime();
+			int frames;
+			while(receiver.getCurrentStage() != ReceiverParser.Stage.FINISH && (frames = reader.read(block, 0, blockSize)) >= 0) {
+				if(channels > 1) {
+					mixdown(block, frames, channels);
+				}
+				int numCodes = demodulator.process(block, 0, frames, codes, 0);
+				receiver.receiveAudio(codes, 0, numCodes);
+				bytesWritten += receiver.drainData(output);
+			}
+			long elapsedNanos = System.nanoTime() - start;
+
+			return new Result(receiver.getCurrentStage() == ReceiverParser.Stage.FINISH, bytesWritten,
+					(double)reader.getFramesRead() / sampleRate, elapsedNanos, receiver);
+		}
+	}
+
+	//Sums each frame's channels into the first "frames" samples, the way one microphone would hear them
+	private static void mixdown(float[] block, int frames, int channels) {
+		for(int i = 0; i < frames; i++) {
+			float sum = 0;
+			for(int c = 0; c < channels; c++) {
+				sum += block[i * channels + c];
+			}
+			block[i] = sum;
+		}
+	}
+
+	public static class Result {
+		public final boolean finished;
+		public final long    bytesWritten;
+		public final double  audioSeconds; //How much of the file was read before the transmission ended
+		public final long    elapsedNanos;
+		//Has the descriptor's parameters and the FEC and compression status
+		public final ReceiverParser receiver;
+
+		Result(boolean finished, long bytesWritten, double audioSeconds, long elapsedNanos, ReceiverParser receiver) {
+			this.finished = finished;
+			this.bytesWritten = bytesWritten;
+			this.audioSeconds = audioSeconds;
+			this.elapsedNanos = elapsedNanos;
+			this.receiver = receiver;
+		}
+
+		//Seconds of audio decoded per second of processing
+		public double getRealtimeFactor() {
+			return audioSeconds / (elapsedNanos / 1e9);
+		}
+
+		public double getBytesPerSecond() {
+			return bytesWritten / (elapsedNanos / 1e9);
+		}
+	}
+}
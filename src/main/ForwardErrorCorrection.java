@@ -0,0 +1,122 @@
+package main;
+
+/**
+ * Reed-Solomon protection for a whole payload, applied before createData on the sender and
+ * after the data section is decoded on the receiver.
+ *
+ * The payload is split as evenly as possible into the fewest codewords that can hold it (each
+ * at most 255 bytes with "parity" of them check bytes), and the codewords are then block
+ * interleaved: byte 0 of every codeword, then byte 1 of every codeword, and so on.  A burst of
+ * misheard symbols is therefore spread over all of the codewords instead of wiping out one.
+ *
+ * The encoded length depends only on the payload length and the parity, and the payload length
+ * can be worked back out from it, so the descriptor's size can carry the encoded length.
+ */
+public class ForwardErrorCorrection {
+	private final ReedSolomon code;
+	private final int parity;
+	//One codeword, de-interleaved, for decode
+	private final byte[] codeword = new byte[ReedSolomon.MAX_CODEWORD];
+
+	private int correctedBytes;
+	private int failedCodewords;
+
+	public ForwardErrorCorrection(int parity) {
+		this.code = new ReedSolomon(parity);
+		this.parity = parity;
+	}
+
+	public int getParity() { return parity; }
+	//Bytes fixed by the last decode
+	public int getCorrectedBytes() { return correctedBytes; }
+	//Codewords the last decode couldn't correct, their data is passed through as received
+	public int getFailedCodewords() { return failedCodewords; }
+
+	public static int numCodewords(int payloadLength, int parity) {
+		int maxData = ReedSolomon.MAX_CODEWORD - parity;
+		return Math.max(1, (payloadLength + maxData - 1) / maxData);
+	}
+
+	public static int encodedLength(int payloadLength, int parity) {
+		return payloadLength + numCodewords(payloadLength, parity) * parity;
+	}
+
+	/**
+	 * The inverse of encodedLength, or -1 if no payload encodes to that length
+	 */
+	public static int payloadLength(int encodedLength, int parity) {
+		int codewords = Math.max(1, (encodedLength + ReedSolomon.MAX_CODEWORD - 1) / ReedSolomon.MAX_CODEWORD);
+		int payloadLength = encodedLength - codewords * parity;
+		if(payloadLength < 0 || encodedLength(payloadLength, parity) != encodedLength) {
+			return -1;
+		}
+		return payloadLength;
+	}
+
+	public byte[] encode(byte[] payload) {
+		int codewords = numCodewords(payload.length, parity);
+		byte[] encoded = new byte[encodedLength(payload.length, parity)];
+
+		int dataOffset = 0;
+		for(int j = 0; j < codewords; j++) {
+			int dataLength = dataLength(payload.length, codewords, j);
+			System.arraycopy(payload, dataOffset, codeword, 0, dataLength);
+			code.encode(codeword, 0, dataLength);
+			interleave(codeword, dataLength + parity, j, codewords, encoded);
+			dataOffset += dataLength;
+		}
+		return encoded;
+	}
+
+	/**
+	 * Decodes encoded[0, encodedLength) into "payload", which needs payloadLength(encodedLength)
+	 * bytes of room.  Codewords with too many errors are passed through uncorrected.
+	 *
+	 * @return the payload length
+	 */
+	public int decode(byte[] encoded, int encodedLength, byte[] payload) {
+		int payloadLength = payloadLength(encodedLength, parity);
+		if(payloadLength < 0) {
+			throw new IllegalArgumentException(encodedLength + " bytes isn't a whole number of codewords with " + parity + " parity");
+		}
+		int codewords = numCodewords(payloadLength, parity);
+		correctedBytes = 0;
+		failedCodewords = 0;
+
+		int dataOffset = 0;
+		for(int j = 0; j < codewords; j++) {
+			int dataLength = dataLength(payloadLength, codewords, j);
+			deinterleave(encoded, dataLength + parity, j, codewords, codeword);
+			int corrected = code.decode(codeword, 0, dataLength + parity);
+			if(corrected < 0) {
+				failedCodewords++;
+			} else {
+				correctedBytes += corrected;
+			}
+			System.arraycopy(codeword, 0, payload, dataOffset, dataLength);
+			dataOffset += dataLength;
+		}
+		return payloadLength;
+	}
+
+	//The first payloadLength % codewords codewords carry one byte more than the rest
+	private int dataLength(int payloadLength, int codewords, int index) {
+		return payloadLength / codewords + (index < payloadLength % codewords ? 1 : 0);
+	}
+
+	/*
+	 * Byte i of codeword j goes to i * codewords + j.  Codewords differ in length by at most
+	 * one byte and the longer ones come first, so the last row is simply cut short.
+	 */
+	private static void interleave(byte[] codeword, int length, int index, int codewords, byte[] encoded) {
+		for(int i = 0, position = index; i < length; i++, position += codewords) {
+			encoded[position] = codeword[i];
+		}
+	}
+
+	private static void deinterleave(byte[] encoded, int length, int index, int codewords, byte[] codeword) {
+		for(int i = 0, position = index; i < length; i++, position += codewords) {
+			codeword[i] = encoded[position];
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package main;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Walks a byte array and hands out one frequency per transmitted symbol, following
+ * the same rules as SenderParser.createData (including the lowFrequency repeat
+ * substitution), but without replicating or materializing the whole frequency array.
+ * Symbols are produced CHUNK_BYTES at a time by a SymbolEncoder into a fixed buffer.
+ *
+ * The bytes can also come from a channel, which is read READ_BYTES at a time into one
+ * reused array, so the payload never has to be on the heap as a whole.
+ */
+class FrequencyCursor {
+	private static final int CHUNK_BYTES = 512;
+	private static final int READ_BYTES = 64 * 1024;
+
+	private final SymbolEncoder encoder;
+	//Null above SymbolEncoder.MAX_TABLE_SPEED, the frequencies are then computed per symbol
+	private final float[] toneFrequencies;
+	private final int transmissionSpeed;
+	private final float lowFrequency;
+	private final float sensitivity;
+	private final int[] symbols;
+
+	private final ReadableByteChannel channel;
+	private long unreadBytes;
+	private final byte[] bytes;
+	private int bytesLength;
+	private int byteIndex;
+
+	private final long numSymbols;
+	private int symbolIndex;
+	private int symbolCount;
+
+	FrequencyCursor(byte[] bytes, int transmissionSpeed, float lowFrequency, float sensitivity) {
+		this(null, bytes, bytes.length, transmissionSpeed, lowFrequency, sensitivity);
+	}
+
+	/**
+	 * Reads exactly "length" bytes from the channel, from its current position
+	 */
+	FrequencyCursor(ReadableByteChannel channel, long length, int transmissionSpeed, float lowFrequency, float sensitivity) {
+		this(channel, new byte[(int)Math.min(READ_BYTES, length)], length, transmissionSpeed, lowFrequency, sensitivity);
+	}
+
+	private FrequencyCursor(ReadableByteChannel channel, byte[] bytes, long length,
+			int transmissionSpeed, float lowFrequency, float sensitivity) {
+		this.encoder = new SymbolEncoder(transmissionSpeed);
+		this.toneFrequencies = transmissionSpeed <= SymbolEncoder.MAX_TABLE_SPEED
+				? SymbolEncoder.toneFrequencies(transmissionSpeed, lowFrequency, sensitivity) : null;
+		this.transmissionSpeed = transmissionSpeed;
+		this.lowFrequency = lowFrequency;
+		this.sensitivity = sensitivity;
+		this.symbols = new int[CHUNK_BYTES * 8];
+
+		this.channel = channel;
+		this.bytes = bytes;
+		if(channel == null) {
+			this.unreadBytes = 0;
+			this.bytesLength = bytes.length;
+		} else {
+			this.unreadBytes = length;
+			this.bytesLength = 0;
+		}
+		this.byteIndex = 0;
+
+		this.numSymbols = SymbolEncoder.numSymbols(length, transmissionSpeed);
+		this.symbolIndex = 0;
+		this.symbolCount = 0;
+	}
+
+	long getNumSymbols() { return numSymbols; }
+
+	boolean hasNext() throws IOException {
+		if(symbolIndex == symbolCount) {
+			refill();
+		}
+		return symbolIndex < symbolCount;
+	}
+
+	float nextFrequency() throws IOException {
+		if(symbolIndex == symbolCount) {
+			refill();
+		}
+		int tone = symbols[symbolIndex++];
+		return toneFrequencies != null ? toneFrequencies[tone]
+				: SymbolEncoder.toneFrequency(tone, transmissionSpeed, lowFrequency, sensitivity);
+	}
+
+	private void refill() throws IOException {
+		symbolIndex = 0;
+		symbolCount = 0;
+		//Keep going until something comes out, a chunk of ts > 8 can be too short for a whole symbol
+		while(symbolCount == 0 && (byteIndex < bytesLength || read())) {
+			int length = Math.min(CHUNK_BYTES, bytesLength - byteIndex);
+			symbolCount = encoder.encode(bytes, byteIndex, length, symbols, 0);
+			byteIndex += length;
+		}
+		if(symbolCount == 0) {
+			symbolCount = encoder.finish(symbols, 0);
+		}
+	}
+
+	//Fills bytes from the channel, false once everything has been read
+	private boolean read() throws IOException {
+		if(unreadBytes == 0) {
+			return false;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, (int)Math.min(bytes.length, unreadBytes));
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer) < 0) {
+				throw new EOFException(unreadBytes - buffer.position() + " bytes short of the expected length");
+			}
+		}
+		bytesLength = buffer.position();
+		byteIndex = 0;
+		unreadBytes -= bytesLength;
+		return true;
+	}
+}
@@ -0,0 +1,206 @@
+package main;
+
+/**
+ * Turns raw PCM into the power-of-two tone codes that ReceiverParser.receiveAudio expects.
+ *
+ * A bank of Goertzel filters is tuned to the tone plan lowFrequency + k * sensitivity, where
+ * tone k shows up as bit k of the code (so 14000, 14500 and 15000 are 1, 2 and 4 for the
+ * locator).  Several Goertzel windows run staggered by windowSize / overlap samples, which
+ * gives a sliding window without keeping any samples around.  Which window codes are emitted
+ * as symbols is up to a CodeTracker, see there.
+ *
+ * Every sample costs a filter step per tone and window, so this is the cheapest detector for
+ * narrow tone plans; FftDemodulator's cost doesn't grow with the number of tones.
+ *
+ * All state is allocated up front, process() allocates nothing.
+ */
+public class GoertzelDemodulator implements ToneDetector {
+	public static final int DEFAULT_OVERLAP = 2;
+	public static final int DEFAULT_STABLE_WINDOWS = 2;
+
+	//A tone is "on" if it holds at least this fraction of the strongest tone's power
+	private static final float RELATIVE_THRESHOLD = 0.3f;
+	//At least this fraction of the window's energy has to be in the tone plan, otherwise
+	//the window is treated as silence / noise
+	private static final float PLAN_ENERGY_THRESHOLD = 0.5f;
+	private static final float SILENCE_ENERGY = 1e-8f;
+
+	private final int sampleRate;
+	private final int windowSize;
+	private final int overlap;
+	private final int hop;
+
+	private float lowFrequency;
+	private float sensitivity;
+	private int numTones;
+	private float[] coefficients;
+
+	//Goertzel state, one row of numTones per staggered window
+	private float[] q1;
+	private float[] q2;
+	private final float[] energy;
+	private final int[] count;
+
+	private final CodeTracker tracker;
+
+	public GoertzelDemodulator(int sampleRate, float lowFrequency, float sensitivity, int numTones, int windowSize) {
+		this(sampleRate, lowFrequency, sensitivity, numTones, windowSize, DEFAULT_OVERLAP, DEFAULT_STABLE_WINDOWS);
+	}
+
+	public GoertzelDemodulator(int sampleRate, float lowFrequency, float sensitivity, int numTones,
+			int windowSize, int overlap, int stableWindows) {
+		if(numTones < 1 || numTones > 31) {
+			throw new IllegalArgumentException("numTones must be between 1 and 31, was " + numTones);
+		}
+		if(overlap < 1 || windowSize < overlap) {
+			throw new IllegalArgumentException("windowSize must be at least overlap");
+		}
+		this.sampleRate = sampleRate;
+		this.windowSize = windowSize;
+		this.overlap = overlap;
+		this.hop = windowSize / overlap;
+		this.tracker = new CodeTracker(windowSize, hop, stableWindows);
+
+		this.energy = new float[overlap];
+		this.count = new int[overlap];
+
+		setTonePlan(lowFrequency, sensitivity, numTones);
+	}
+
+	/**
+	 * Retunes the filter bank, e.g. once the descriptor has given the data section's tone plan.
+	 * Only allocates if the plan has more tones than any plan before it.
+	 */
+	@Override
+	public void setTonePlan(float lowFrequency, float sensitivity, int numTones) {
+		if(numTones < 1 || numTones > 31) {
+			throw new IllegalArgumentException("numTones must be between 1 and 31, was " + numTones);
+		}
+		this.lowFrequency = lowFrequency;
+		this.sensitivity = sensitivity;
+		this.numTones = numTones;
+
+		if(coefficients == null || coefficients.length < numTones) {
+			coefficients = new float[numTones];
+			q1 = new float[overlap * numTones];
+			q2 = new float[overlap * numTones];
+		}
+		for(int k = 0; k < numTones; k++) {
+			coefficients[k] = (float)(2 * Math.cos(2 * Math.PI * (lowFrequency + k * sensitivity) / sampleRate));
+		}
+		reset();
+	}
+
+	@Override
+	public void reset() {
+		for(int j = 0; j < overlap; j++) {
+			//Window j starts j hops in, so the windows end up evenly staggered
+			count[j] = -j * hop;
+			clearWindow(j);
+		}
+		tracker.reset();
+	}
+
+	@Override public int getSampleRate() { return sampleRate; }
+	public int getWindowSize() { return windowSize; }
+	public int getHop() { return hop; }
+	public float getLowFrequency() { return lowFrequency; }
+	public float getSensitivity() { return sensitivity; }
+	@Override public int getNumTones() { return numTones; }
+	public int getSamplesPerSymbol() { return tracker.getSamplesPerSymbol(); }
+	
+	//0 turns re-emitting held codes off, see CodeTracker.setSamplesPerSymbol
+	@Override
+	public void setSamplesPerSymbol(int samplesPerSymbol) {
+		tracker.setSamplesPerSymbol(samplesPerSymbol);
+	}
+
+	@Override
+	public int maxCodes(int length) {
+		return length / hop + overlap;
+	}
+
+	@Override
+	public int process(float[] samples, int offset, int length, int[] codes, int codesOffset) {
+		int written = 0;
+		int tones = numTones;
+
+		for(int i = offset, end = offset + length; i < end; i++) {
+			float x = samples[i];
+
+			for(int j = 0; j < overlap; j++) {
+				if(count[j] < 0) {
+					count[j]++;
+					continue;
+				}
+
+				int base = j * tones;
+				for(int k = 0; k < tones; k++) {
+					float q0 = coefficients[k] * q1[base + k] - q2[base + k] + x;
+					q2[base + k] = q1[base + k];
+					q1[base + k] = q0;
+				}
+				energy[j] += x * x;
+
+				if(++count[j] == windowSize) {
+					int code = evaluate(j);
+					clearWindow(j);
+					count[j] = 0;
+
+					if(tracker.offer(code)) {
+						codes[codesOffset + written++] = code;
+					}
+				}
+			}
+		}
+
+		return written;
+	}
+
+	private int evaluate(int window) {
+		int base = window * numTones;
+		float windowEnergy = energy[window];
+		if(windowEnergy < SILENCE_ENERGY * windowSize) {
+			return 0;
+		}
+
+		//A pure tone of amplitude A gives a Goertzel power of about (A * N / 2)^2 and an
+		//energy of about A^2 * N / 2, so this scales each power to a fraction of the energy
+		float scale = 2.0f / (windowEnergy * windowSize);
+		float maxPower = 0;
+		float totalPower = 0;
+		for(int k = 0; k < numTones; k++) {
+			float a = q1[base + k];
+			float b = q2[base + k];
+			float power = (a * a + b * b - coefficients[k] * a * b) * scale;
+			//Park the power in q2 until the code is built, it gets cleared right after
+			q2[base + k] = power;
+			totalPower += power;
+			if(power > maxPower) {
+				maxPower = power;
+			}
+		}
+
+		if(totalPower < PLAN_ENERGY_THRESHOLD) {
+			return 0;
+		}
+
+		int code = 0;
+		float threshold = maxPower * RELATIVE_THRESHOLD;
+		for(int k = 0; k < numTones; k++) {
+			if(q2[base + k] >= threshold) {
+				code |= 1 << k;
+			}
+		}
+		return code;
+	}
+
+	private void clearWindow(int window) {
+		int base = window * numTones;
+		for(int k = 0; k < numTones; k++) {
+			q1[base + k] = 0;
+			q2[base + k] = 0;
+		}
+		energy[window] = 0;
+	}
+}
@@ -0,0 +1,99 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * A growable array of primitive bytes, used for decoded output instead of an ArrayList<Byte>.
+ * The contents can be viewed as a read-only ByteBuffer or written to a channel without
+ * being copied.
+ */
+public class GrowableByteBuffer {
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private byte[] bytes;
+	private int size;
+
+	public GrowableByteBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public GrowableByteBuffer(int initialCapacity) {
+		this.bytes = new byte[Math.max(1, initialCapacity)];
+		this.size = 0;
+	}
+
+	public int size() { return size; }
+	public int capacity() { return bytes.length; }
+
+	public void clear() {
+		size = 0;
+	}
+
+	//Drops everything from "newSize" on
+	public void truncate(int newSize) {
+		if(newSize < 0 || newSize > size) {
+			throw new IndexOutOfBoundsException("New size: " + newSize + ", Size: " + size);
+		}
+		size = newSize;
+	}
+
+	public void ensureCapacity(int capacity) {
+		if(capacity > bytes.length) {
+			//Grow by at least half so that appending stays amortized O(1)
+			int newCapacity = Math.max(capacity, bytes.length + (bytes.length >> 1));
+			if(newCapacity < 0) {
+				newCapacity = Integer.MAX_VALUE - 8;
+			}
+			bytes = Arrays.copyOf(bytes, newCapacity);
+		}
+	}
+
+	public void put(byte b) {
+		if(size == bytes.length) {
+			ensureCapacity(size + 1);
+		}
+		bytes[size++] = b;
+	}
+
+	public void put(byte[] source, int offset, int length) {
+		ensureCapacity(size + length);
+		System.arraycopy(source, offset, bytes, size, length);
+		size += length;
+	}
+
+	public byte get(int index) {
+		if(index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return bytes[index];
+	}
+
+	/**
+	 * A read-only view of the current contents.  It shares storage with this buffer, so
+	 * it is only valid until the next put() or clear().
+	 */
+	public ByteBuffer asReadOnlyBuffer() {
+		return ByteBuffer.wrap(bytes, 0, size).asReadOnlyBuffer();
+	}
+
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		ByteBuffer view = ByteBuffer.wrap(bytes, 0, size);
+		while(view.hasRemaining()) {
+			channel.write(view);
+		}
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(bytes, size);
+	}
+
+	public byte[] toByteArray(int from, int to) {
+		if(from < 0 || to > size || from > to) {
+			throw new IndexOutOfBoundsException("From: " + from + ", To: " + to + ", Size: " + size);
+		}
+		return Arrays.copyOfRange(bytes, from, to);
+	}
+}
@@ -0,0 +1,98 @@
+package main;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds, with one bucket per power of two.
+ *
+ * Recording is a few atomic adds and never allocates, so any number of threads can record
+ * at once.  Percentiles are only as exact as the buckets: a duration in [2^k, 2^(k+1)) is
+ * reported as 2^(k+1), i.e. at most twice the real value.
+ */
+public class LatencyHistogram {
+	//Bucket k holds durations whose highest set bit is bit k, bucket 0 also holds 0
+	private static final int BUCKETS = 64;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	public void record(long nanos) {
+		if(nanos < 0) nanos = 0;
+		buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos | 1));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max;
+		while(nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+			//Lost to another thread, look again
+		}
+	}
+
+	public long getCount() { return count.get(); }
+	public long getTotalNanos() { return totalNanos.get(); }
+	public long getMaxNanos() { return maxNanos.get(); }
+
+	public long getMeanNanos() {
+		long n = count.get();
+		return n == 0 ? 0 : totalNanos.get() / n;
+	}
+
+	//Upper bound of the bucket the "percentile" (0 to 100) duration is in, 0 if nothing was recorded
+	public long getPercentileNanos(double percentile) {
+		long n = count.get();
+		if(n == 0) return 0;
+		long rank = Math.max(1, (long)Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for(int k = 0; k < BUCKETS; k++) {
+			seen += buckets.get(k);
+			if(seen >= rank) {
+				//Never claim more than the slowest duration actually seen
+				return Math.min(k == 63 ? Long.MAX_VALUE : 2L << k, maxNanos.get());
+			}
+		}
+		//Buckets and count are updated separately, so a reader can briefly see them disagree
+		return maxNanos.get();
+	}
+
+	public void clear() {
+		for(int k = 0; k < BUCKETS; k++) {
+			buckets.set(k, 0);
+		}
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+
+	public Snapshot snapshot() {
+		return new Snapshot(getCount(), getMeanNanos(), getPercentileNanos(50), getPercentileNanos(99), getMaxNanos());
+	}
+
+	/**
+	 * The histogram at one point in time, in the form JMX shows it (as CompositeData).
+	 */
+	public static class Snapshot {
+		private final long count;
+		private final long meanNanos;
+		private final long p50Nanos;
+		private final long p99Nanos;
+		private final long maxNanos;
+
+		@ConstructorProperties({"count", "meanNanos", "p50Nanos", "p99Nanos", "maxNanos"})
+		public Snapshot(long count, long meanNanos, long p50Nanos, long p99Nanos, long maxNanos) {
+			this.count = count;
+			this.meanNanos = meanNanos;
+			this.p50Nanos = p50Nanos;
+			this.p99Nanos = p99Nanos;
+			this.maxNanos = maxNanos;
+		}
+
+		public long getCount() { return count; }
+		public long getMeanNanos() { return meanNanos; }
+		public long getP50Nanos() { return p50Nanos; }
+		public long getP99Nanos() { return p99Nanos; }
+		public long getMaxNanos() { return maxNanos; }
+	}
+}
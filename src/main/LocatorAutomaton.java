@@ -0,0 +1,136 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds locator patterns (sequences of frequencies, see SenderParser.transmissionLocator) in
+ * a stream of symbols, one symbol at a time.
+ *
+ * This is an Aho-Corasick automaton with every transition filled in, so it is a plain DFA:
+ * the whole search state is one int, each symbol is one table lookup, and a symbol that
+ * breaks a partial match is never looked at twice.  Unlike restarting from the beginning
+ * on a mismatch, it still finds a locator that starts inside a failed partial match, e.g.
+ * 1 4 [1 4 2 4 1 4].
+ *
+ * Frequencies are mapped to symbols with symbolOf; every frequency that isn't in any pattern
+ * is the one symbol getOtherSymbol().
+ */
+public class LocatorAutomaton {
+	public static final int START = 0;
+	public static final int NO_MATCH = -1;
+
+	private final float[] alphabet;
+	private final int numSymbols;
+	//transitions[state * numSymbols + symbol] is the next state
+	private final int[] transitions;
+	//Pattern that ends at each state, NO_MATCH for the rest
+	private final int[] matches;
+	private final int[] patternLengths;
+
+	public LocatorAutomaton(float[]... patterns) {
+		if(patterns.length == 0) {
+			throw new IllegalArgumentException("At least one pattern is needed");
+		}
+		List<Float> frequencies = new ArrayList<Float>();
+		int maxStates = 1;
+		for(float[] pattern : patterns) {
+			if(pattern.length == 0) {
+				throw new IllegalArgumentException("Patterns can't be empty");
+			}
+			for(float frequency : pattern) {
+				if(!frequencies.contains(frequency)) {
+					frequencies.add(frequency);
+				}
+			}
+			maxStates += pattern.length;
+		}
+		alphabet = new float[frequencies.size()];
+		for(int i = 0; i < alphabet.length; i++) {
+			alphabet[i] = frequencies.get(i);
+		}
+		//One more symbol for everything else
+		numSymbols = alphabet.length + 1;
+		patternLengths = new int[patterns.length];
+
+		//The trie, -1 where there is no edge yet
+		int[] trie = new int[maxStates * numSymbols];
+		Arrays.fill(trie, -1);
+		int[] stateMatches = new int[maxStates];
+		Arrays.fill(stateMatches, NO_MATCH);
+		int states = 1;
+		for(int p = 0; p < patterns.length; p++) {
+			int state = START;
+			for(float frequency : patterns[p]) {
+				int edge = state * numSymbols + symbolOf(frequency);
+				if(trie[edge] < 0) {
+					trie[edge] = states++;
+				}
+				state = trie[edge];
+			}
+			//If one pattern is repeated the first one wins
+			if(stateMatches[state] == NO_MATCH) {
+				stateMatches[state] = p;
+			}
+			patternLengths[p] = patterns[p].length;
+		}
+
+		//Breadth first, fill the missing edges from each state's failure state, which is
+		//always nearer the start and so already complete
+		transitions = new int[states * numSymbols];
+		matches = Arrays.copyOf(stateMatches, states);
+		int[] failure = new int[states];
+		int[] queue = new int[states];
+		int head = 0, tail = 0;
+		for(int symbol = 0; symbol < numSymbols; symbol++) {
+			int next = trie[symbol];
+			if(next < 0) {
+				transitions[symbol] = START;
+			} else {
+				transitions[symbol] = next;
+				failure[next] = START;
+				queue[tail++] = next;
+			}
+		}
+		while(head < tail) {
+			int state = queue[head++];
+			//A pattern that ends inside a longer one still counts
+			if(matches[state] == NO_MATCH) {
+				matches[state] = matches[failure[state]];
+			}
+			for(int symbol = 0; symbol < numSymbols; symbol++) {
+				int next = trie[state * numSymbols + symbol];
+				if(next < 0) {
+					transitions[state * numSymbols + symbol] = transitions[failure[state] * numSymbols + symbol];
+				} else {
+					transitions[state * numSymbols + symbol] = next;
+					failure[next] = transitions[failure[state] * numSymbols + symbol];
+					queue[tail++] = next;
+				}
+			}
+		}
+	}
+
+	public int getNumStates() { return matches.length; }
+	public int getOtherSymbol() { return alphabet.length; }
+	public int getPatternLength(int pattern) { return patternLengths[pattern]; }
+
+	public int symbolOf(float frequency) {
+		for(int i = 0; i < alphabet.length; i++) {
+			if(alphabet[i] == frequency) {
+				return i;
+			}
+		}
+		return alphabet.length;
+	}
+
+	public int next(int state, int symbol) {
+		return transitions[state * numSymbols + symbol];
+	}
+
+	//The pattern that was just completed by reaching "state", or NO_MATCH
+	public int match(int state) {
+		return matches[state];
+	}
+}
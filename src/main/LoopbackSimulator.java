@@ -0,0 +1,129 @@
+package main;
+
+/**
+ * Sends a payload through SenderParser, a ChannelModel, a ToneDetector and a
+ * ReceiverParser, all in memory, and measures what came out the other end.  Nothing
+ * touches audio hardware or the file system, so it can run anywhere tests can.
+ *
+ * The receiver is fed blockSize samples at a time, the way it would be from a microphone.
+ * Only DIRECT and CASCADE are supported, BIT_BY_BIT has no receiver yet.  Goodput counts
+ * payload bits only, so forward error correction pays for its parity in airtime.
+ *
+ * Without a channel the samples go through untouched.  A ChannelModel has to be built for
+ * the simulator's sample rate.
+ */
+public class LoopbackSimulator {
+	public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+	private final SenderParser sender = new SenderParser();
+	private ChannelModel channel = null;
+	private int   transmissionSpeed = 1;
+	private float lowFrequency = 14000;
+	private float sensitivity = 500;
+	private int   replication = 441;
+	private int   method = SenderParser.DIRECT;
+	//0 means half a symbol
+	private int   windowSize = 0;
+	private int   blockSize = DEFAULT_BLOCK_SIZE;
+	private boolean fftDetection = false;
+
+	public void setChannel(ChannelModel channel) { this.channel = channel; }
+	//See SenderParser.setSampleRate, replication isn't scaled with it
+	public void setSampleRate(int sampleRate) { sender.setSampleRate(sampleRate); }
+	public void setTs(int ts) { this.transmissionSpeed = ts; }
+	public void setLf(float lf) { this.lowFrequency = lf; }
+	public void setS(float s) { this.sensitivity = s; }
+	public void setReplication(int replication) { this.replication = replication; }
+	//Can include forward error correction, see SenderParser.withFec
+	public void setM(int method) {
+		int modulation = SenderParser.getModulation(method);
+		if(modulation != SenderParser.DIRECT && modulation != SenderParser.CASCADE) {
+			throw new IllegalArgumentException("Only DIRECT and CASCADE can be received, not " + method);
+		}
+		this.method = method;
+	}
+	public void setWindowSize(int windowSize) { this.windowSize = windowSize; }
+	public void setBlockSize(int blockSize) { this.blockSize = blockSize; }
+	//An FftDemodulator instead of the GoertzelDemodulator
+	public void setFftDetection(boolean fftDetection) { this.fftDetection = fftDetection; }
+
+	public ChannelModel getChannel() { return channel; }
+	public int getSampleRate() { return sender.getSampleRate(); }
+
+	public Result run(byte[] payload) {
+		int sampleRate = sender.getSampleRate();
+		if(channel != null && channel.getSampleRate() != sampleRate) {
+			throw new IllegalStateException("The channel is at " + channel.getSampleRate() + "Hz, the transmission at " + sampleRate + "Hz");
+		}
+		float[] sent = sender.createTransmission(payload, transmissionSpeed, lowFrequency, sensitivity, replication, method)[0];
+		float[] received = channel == null ? sent : channel.apply(sent);
+
+		//The locator and descriptor use the same tone grid, so it has to reach the locator's top tone too
+		int locatorTones = Math.round((SenderParser.transmissionHighFrequency - lowFrequency) / sensitivity) + 1;
+		int numTones = Math.min(31, Math.max(locatorTones, SenderParser.getNumTones(transmissionSpeed, SenderParser.getModulation(method))));
+		int window = windowSize > 0 ? windowSize : Math.max(2, replication / 2);
+		ToneDetector demodulator = fftDetection ? new FftDemodulator(sampleRate, lowFrequency, sensitivity, numTones, window)
+				: new GoertzelDemodulator(sampleRate, lowFrequency, sensitivity, numTones, window);
+		demodulator.setSamplesPerSymbol(replication);
+
+		ReceiverParser receiver = new ReceiverParser();
+		receiver.setLf(lowFrequency);
+		receiver.setS(sensitivity);
+		receiver.setTs(1);
+
+		int[] codes = new int[demodulator.maxCodes(blockSize)];
+		long start = System.nanoTime();
+		for(int offset = 0; offset < received.length && receiver.getCurrentStage() != ReceiverParser.Stage.FINISH; offset += blockSize) {
+			int length = Math.min(blockSize, received.length - offset);
+			int numCodes = demodulator.process(received, offset, length, codes, 0);
+			receiver.receiveAudio(codes, 0, numCodes);
+		}
+		long decodeNanos = System.nanoTime() - start;
+
+		boolean finished = receiver.getCurrentStage() == ReceiverParser.Stage.FINISH;
+		byte[] decoded = receiver.getData();
+		long bitErrors = 0;
+		for(int i = 0; i < payload.length; i++) {
+			//Bytes that never arrived count as wrong
+			bitErrors += i < decoded.length ? Integer.bitCount((payload[i] ^ decoded[i]) & 0xFF) : 8;
+		}
+
+		return new Result(payload.length, (double)sent.length / sampleRate, finished, decoded.length, bitErrors, decodeNanos);
+	}
+
+	public static class Result {
+		public final int    payloadBytes;
+		public final double airtimeSeconds;
+		public final boolean finished;
+		public final int    decodedBytes;
+		public final long   bitErrors;
+		public final long   decodeNanos;
+
+		Result(int payloadBytes, double airtimeSeconds, boolean finished, int decodedBytes, long bitErrors, long decodeNanos) {
+			this.payloadBytes = payloadBytes;
+			this.airtimeSeconds = airtimeSeconds;
+			this.finished = finished;
+			this.decodedBytes = decodedBytes;
+			this.bitErrors = bitErrors;
+			this.decodeNanos = decodeNanos;
+		}
+
+		//Only a transmission that arrived whole and intact delivers anything
+		public boolean isIntact() {
+			return finished && decodedBytes == payloadBytes && bitErrors == 0;
+		}
+
+		public double getBitErrorRate() {
+			return payloadBytes == 0 ? 0 : (double)bitErrors / (payloadBytes * 8L);
+		}
+
+		public double getGoodput() {
+			return isIntact() ? payloadBytes * 8 / airtimeSeconds : 0;
+		}
+
+		//Seconds of audio decoded per second of processing
+		public double getRealtimeFactor() {
+			return airtimeSeconds / (decodeNanos / 1e9);
+		}
+	}
+}
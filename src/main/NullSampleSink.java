@@ -0,0 +1,21 @@
+package main;
+
+/**
+ * Throws samples away, for benchmarks that shouldn't include file I/O.  It still reads one
+ * sample of every block so the work that produced them can't be optimized out.
+ */
+public class NullSampleSink implements SampleSink {
+	private long samplesWritten;
+	private float checksum;
+
+	@Override
+	public void write(float[] samples, int offset, int length) {
+		if(length > 0) {
+			checksum += samples[offset + length - 1];
+		}
+		samplesWritten += length;
+	}
+
+	public long getSamplesWritten() { return samplesWritten; }
+	public float getChecksum() { return checksum; }
+}
@@ -0,0 +1,113 @@
+package main;
+
+/**
+ * A bank of sine oscillators, one per channel, driven by 32 bit phase accumulators.
+ *
+ * The phase of each channel is an int where the full 2^32 range is one period, so it
+ * wraps for free and never drifts the way adding a double timeStep does.  Samples come
+ * from a shared sine table with linear interpolation, so the render loop has no
+ * Math.sin calls and allocates nothing.
+ */
+public class OscillatorBank {
+	private static final int TABLE_BITS = 12;
+	private static final int TABLE_SIZE = 1 << TABLE_BITS;
+	private static final int FRACTION_BITS = 32 - TABLE_BITS;
+	private static final int FRACTION_MASK = (1 << FRACTION_BITS) - 1;
+	private static final float FRACTION_SCALE = 1.0f / (1 << FRACTION_BITS);
+	private static final double PHASE_RANGE = 4294967296.0; // 2^32
+
+	//One extra entry so that interpolation never has to wrap the index
+	private static final float[] SINE_TABLE = new float[TABLE_SIZE + 1];
+
+	static {
+		for(int i = 0; i <= TABLE_SIZE; i++) {
+			SINE_TABLE[i] = (float)Math.sin(2 * Math.PI * i / TABLE_SIZE);
+		}
+	}
+
+	private final int sampleRate;
+	private final int[] phase;
+
+	public OscillatorBank(int numChannels, int sampleRate) {
+		this.sampleRate = sampleRate;
+		this.phase = new int[numChannels];
+	}
+
+	public int getNumChannels() { return phase.length; }
+	public int getSampleRate() { return sampleRate; }
+	public int getPhase(int channel) { return phase[channel]; }
+	public void setPhase(int channel, int value) { phase[channel] = value; }
+
+	public void reset() {
+		for(int i = 0; i < phase.length; i++) {
+			phase[i] = 0;
+		}
+	}
+
+	/**
+	 * Amount the phase accumulator moves per sample for the given frequency.
+	 */
+	public static int phaseIncrement(float frequency, int sampleRate) {
+		return (int)Math.round(frequency / (double)sampleRate * PHASE_RANGE);
+	}
+
+	public static float sine(int phase) {
+		int index = phase >>> FRACTION_BITS;
+		float fraction = (phase & FRACTION_MASK) * FRACTION_SCALE;
+		float a = SINE_TABLE[index];
+		return a + (SINE_TABLE[index + 1] - a) * fraction;
+	}
+
+	/**
+	 * Writes "count" samples of "frequency" on "channel" into out, starting at "offset",
+	 * and advances that channel's phase.  Other channels are left untouched.
+	 */
+	public void render(int channel, float frequency, float[] out, int offset, int count) {
+		phase[channel] = render(phase[channel], frequency, sampleRate, out, offset, count);
+	}
+
+	/**
+	 * Same as render, for an oscillator that only exists as a phase, e.g. one segment of a
+	 * transmission being synthesized on its own thread.
+	 *
+	 * @return the phase after the last sample
+	 */
+	public static int render(int phase, float frequency, int sampleRate, float[] out, int offset, int count) {
+		int increment = phaseIncrement(frequency, sampleRate);
+		int p = phase;
+		for(int i = offset, end = offset + count; i < end; i++) {
+			int index = p >>> FRACTION_BITS;
+			float fraction = (p & FRACTION_MASK) * FRACTION_SCALE;
+			float a = SINE_TABLE[index];
+			out[i] = a + (SINE_TABLE[index + 1] - a) * fraction;
+			p += increment;
+		}
+		return p;
+	}
+
+	/**
+	 * The phase "count" samples of "frequency" after "phase", without rendering anything.
+	 * The accumulator wraps the same way whether it is added to once per sample or
+	 * multiplied out, so this is exactly where render would leave it.
+	 */
+	public static int advance(int phase, float frequency, int sampleRate, int count) {
+		return phase + phaseIncrement(frequency, sampleRate) * count;
+	}
+
+	/**
+	 * Same as render, but adds gain * sample to what is already in out, for playing
+	 * several tones at once.
+	 */
+	public void renderAdd(int channel, float frequency, float gain, float[] out, int offset, int count) {
+		int increment = phaseIncrement(frequency, sampleRate);
+		int p = phase[channel];
+		for(int i = offset, end = offset + count; i < end; i++) {
+			int index = p >>> FRACTION_BITS;
+			float fraction = (p & FRACTION_MASK) * FRACTION_SCALE;
+			float a = SINE_TABLE[index];
+			out[i] += gain * (a + (SINE_TABLE[index + 1] - a) * fraction);
+			p += increment;
+		}
+		phase[channel] = p;
+	}
+}
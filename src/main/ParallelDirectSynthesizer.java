@@ -0,0 +1,122 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders a DIRECT frequency array on a ForkJoinPool.
+ *
+ * The phase at any sample only depends on the frequencies before it, so the output is cut into
+ * segments of segmentSize samples and synthesized in three steps:
+ * 1. every segment works out how far it moves the phase (in parallel, no rendering),
+ * 2. a prefix sum over those gives every segment's starting phase (sequential, one add per segment),
+ * 3. every segment renders into its own region of the output (in parallel).
+ * The phase accumulator is an int that wraps, and int addition is associative, so each segment
+ * starts at exactly the phase the sequential render would have reached: the samples are
+ * bit for bit the same as OscillatorBank.render run over the whole array.
+ */
+public class ParallelDirectSynthesizer {
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 16;
+
+	private final ForkJoinPool pool;
+	private final int segmentSize;
+
+	public ParallelDirectSynthesizer(ForkJoinPool pool) {
+		this(pool, DEFAULT_SEGMENT_SIZE);
+	}
+
+	public ParallelDirectSynthesizer(ForkJoinPool pool, int segmentSize) {
+		if(segmentSize < 1) {
+			throw new IllegalArgumentException("segmentSize must be positive, was " + segmentSize);
+		}
+		this.pool = pool;
+		this.segmentSize = segmentSize;
+	}
+
+	public ForkJoinPool getPool() { return pool; }
+	public int getSegmentSize() { return segmentSize; }
+
+	/**
+	 * Renders one sample per entry of frequencies into out, starting at "startPhase".
+	 *
+	 * @return the phase after the last sample, for whatever is rendered next
+	 */
+	public int render(final float[] frequencies, int startPhase, final int sampleRate, final float[] out) {
+		int numSegments = (frequencies.length + segmentSize - 1) / segmentSize;
+		//Splitting only pays for the extra pass over the frequencies if there's a core to spare
+		if(numSegments <= 1 || pool.getParallelism() <= 1) {
+			return renderSegment(frequencies, 0, frequencies.length, startPhase, sampleRate, out);
+		}
+
+		final int[] phases = new int[numSegments + 1];
+		List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(numSegments);
+		for(int k = 0; k < numSegments; k++) {
+			final int segment = k;
+			tasks.add(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					int start = segment * segmentSize;
+					phases[segment + 1] = advanceSegment(frequencies, start, Math.min(start + segmentSize, frequencies.length), sampleRate);
+				}
+			});
+		}
+		invokeAll(tasks);
+
+		//phases[k] goes from segment k's phase advance to its starting phase
+		phases[0] = startPhase;
+		for(int k = 1; k <= numSegments; k++) {
+			phases[k] += phases[k - 1];
+		}
+
+		tasks.clear();
+		for(int k = 0; k < numSegments; k++) {
+			final int segment = k;
+			tasks.add(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					int start = segment * segmentSize;
+					renderSegment(frequencies, start, Math.min(start + segmentSize, frequencies.length), phases[segment], sampleRate, out);
+				}
+			});
+		}
+		invokeAll(tasks);
+
+		return phases[numSegments];
+	}
+
+	private void invokeAll(final List<RecursiveAction> tasks) {
+		pool.invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				ForkJoinTask.invokeAll(tasks);
+			}
+		});
+	}
+
+	//How far the phase moves over [start, end), done per run of equal frequencies like the render
+	private static int advanceSegment(float[] frequencies, int start, int end, int sampleRate) {
+		int phase = 0;
+		int runStart = start;
+		for(int i = start + 1; i <= end; i++) {
+			if(i == end || frequencies[i] != frequencies[runStart]) {
+				phase = OscillatorBank.advance(phase, frequencies[runStart], sampleRate, i - runStart);
+				runStart = i;
+			}
+		}
+		return phase;
+	}
+
+	private static int renderSegment(float[] frequencies, int start, int end, int phase, int sampleRate, float[] out) {
+		int runStart = start;
+		for(int i = start + 1; i <= end; i++) {
+			if(i == end || frequencies[i] != frequencies[runStart]) {
+				phase = OscillatorBank.render(phase, frequencies[runStart], sampleRate, out, runStart, i - runStart);
+				runStart = i;
+			}
+		}
+		return phase;
+	}
+}
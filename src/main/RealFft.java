@@ -0,0 +1,116 @@
+package main;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A radix-2 FFT of real input, done as a complex FFT of half the size.
+ *
+ * The bit reversal and twiddle tables only depend on the size, so there is one immutable
+ * instance per size, shared by everyone (see forSize).  The caller owns the work buffers:
+ * the real input x goes in as re[n] = x[2n], im[n] = x[2n + 1], is transformed in place, and
+ * power() then gives |X[k]|^2 of any bin without unpacking the whole spectrum.
+ */
+final class RealFft {
+	private static final ConcurrentHashMap<Integer, RealFft> INSTANCES = new ConcurrentHashMap<Integer, RealFft>();
+
+	private final int size;
+	private final int half;
+	private final int[] bitReverse;
+	//exp(-2 pi i m / half) for m < half / 2, for the butterflies
+	private final float[] cos;
+	private final float[] sin;
+	//exp(-2 pi i k / size) for k <= half, for splitting the half size transform
+	private final float[] splitCos;
+	private final float[] splitSin;
+
+	static RealFft forSize(int size) {
+		RealFft fft = INSTANCES.get(size);
+		if(fft == null) {
+			RealFft created = new RealFft(size);
+			fft = INSTANCES.putIfAbsent(size, created);
+			if(fft == null) {
+				fft = created;
+			}
+		}
+		return fft;
+	}
+
+	private RealFft(int size) {
+		if(size < 4 || Integer.bitCount(size) != 1) {
+			throw new IllegalArgumentException("The size has to be a power of two of at least 4, was " + size);
+		}
+		this.size = size;
+		this.half = size / 2;
+
+		int bits = Integer.numberOfTrailingZeros(half);
+		bitReverse = new int[half];
+		for(int i = 0; i < half; i++) {
+			bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+		}
+		cos = new float[Math.max(1, half / 2)];
+		sin = new float[cos.length];
+		for(int m = 0; m < cos.length; m++) {
+			cos[m] = (float)Math.cos(2 * Math.PI * m / half);
+			sin[m] = (float)-Math.sin(2 * Math.PI * m / half);
+		}
+		splitCos = new float[half + 1];
+		splitSin = new float[half + 1];
+		for(int k = 0; k <= half; k++) {
+			splitCos[k] = (float)Math.cos(2 * Math.PI * k / size);
+			splitSin[k] = (float)-Math.sin(2 * Math.PI * k / size);
+		}
+	}
+
+	int getSize() { return size; }
+
+	//In place complex FFT of the packed input, re and im hold size / 2 values each
+	void transform(float[] re, float[] im) {
+		for(int i = 0; i < half; i++) {
+			int j = bitReverse[i];
+			if(j > i) {
+				float t = re[i]; re[i] = re[j]; re[j] = t;
+				t = im[i]; im[i] = im[j]; im[j] = t;
+			}
+		}
+		for(int length = 2; length <= half; length <<= 1) {
+			int span = length / 2;
+			int step = half / length;
+			for(int start = 0; start < half; start += length) {
+				for(int k = 0, m = 0; k < span; k++, m += step) {
+					int a = start + k;
+					int b = a + span;
+					float wr = cos[m];
+					float wi = sin[m];
+					float tr = re[b] * wr - im[b] * wi;
+					float ti = re[b] * wi + im[b] * wr;
+					re[b] = re[a] - tr;
+					im[b] = im[a] - ti;
+					re[a] += tr;
+					im[a] += ti;
+				}
+			}
+		}
+	}
+
+	/**
+	 * |X[k]|^2 for bin k (0 to size / 2) of the real input, from transform's output.  The
+	 * transforms of the even and odd samples are pulled apart from Z[k] and Z[half - k] and
+	 * joined with one twiddle, so it costs the same for any bin.
+	 */
+	float power(float[] re, float[] im, int k) {
+		int p = k == half ? 0 : k;
+		int q = k == 0 ? 0 : half - k;
+		//Even samples' transform
+		float er = (re[p] + re[q]) * 0.5f;
+		float ei = (im[p] - im[q]) * 0.5f;
+		//Odd samples' transform
+		float or = (im[p] + im[q]) * 0.5f;
+		float oi = (re[q] - re[p]) * 0.5f;
+
+		float c = splitCos[k];
+		float s = splitSin[k];
+		float xr = er + c * or - s * oi;
+		float xi = ei + c * oi + s * or;
+		return xr * xr + xi * xi;
+	}
+}
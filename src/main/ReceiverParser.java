@@ -2,7 +2,12 @@ package main;
 
 import java.io.*;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * Parses a file to eventually be converted to a sound wave.
@@ -13,6 +18,20 @@ public class ReceiverParser {
 	private static final int BYTE_LENGTH = 8;
 	private static final int INT_LENGTH = 32;
 	
+	//The descriptor is always sent one bit per symbol, see SenderParser.createDescriptorBytes
+	private static final int   DESCRIPTOR_BYTES = 20;
+	private static final int   NO_VALUE = -2;
+	private static final int   REPEAT = -1;
+	//Tone k is bit k of a converted frequency, so an int can hold 31 of them
+	private static final int   MAX_TONES = 31;
+	private static final int   MAX_TABLE_BITS = 12;
+	//A corrupted descriptor can claim any size, so only trust it this far up front
+	private static final int   MAX_PREALLOCATION = 1 << 24;
+	//Buffers bigger than this are let go on reset rather than kept for the next transmission
+	private static final int   RETAINED_CAPACITY = 1 << 20;
+	//Compressed bytes are inflated this many at a time as they arrive
+	private static final int   INFLATE_CHUNK = 64;
+	
 	public enum Stage {
 		LOCATE, DETERMINE, DECODE, FINISH
 	}
@@ -23,16 +42,55 @@ public class ReceiverParser {
 	private int   transmissionSpeed;
 	private float lowFrequency;
 	private float sensitivity;
-	private int   method;
+	private int   method; //Only the modulation, see SenderParser.getModulation
 	private int   size;
+	private int   fecParity; //0 if the data section has no forward error correction
+	private int   compression; //SenderParser.COMPRESSION_NONE or the payload's codec
+	private int   sampleRate; //What the transmission was synthesized at
+	
+	//Finds SenderParser.transmissionLocator, at the start (LOCATE) and after the data (DECODE)
+	private static final LocatorAutomaton LOCATOR = new LocatorAutomaton(SenderParser.transmissionLocator);
+	private int   locatorState; //How much of the locator the last symbols matched, see LocatorAutomaton
+	
+	//----Partial state, carried across receiveAudio calls----
+	private byte[] descriptorBytes;
+	private int    descriptorBitIndex;
+	
+	private int    previousSymbol; //Last symbol heard, REPEAT means repeat the one before
+	private int    previousValue; //Last symbol that carried a value
+	private byte   currentByte; //Byte being built from the incoming bits
+	private int    currentByteBitsRemaining;
+	private int    decodedBytes;
+	private boolean dataComplete; //The whole data section is in and has been finished
+	private int    dataStart; //Where this transmission's payload starts in retrievedData
+	
+	private GrowableByteBuffer retrievedData;
+	private ForwardErrorCorrection fec;
+	private int    correctedBytes; //The current transmission's, the decoder is shared between them
+	private int    failedCodewords;
+	//The data section as received, when it has to be corrected as a whole before use
+	private GrowableByteBuffer encodedData;
 	
-	private int   currentLocatorIndex; //Which part of SenderParser.transmissionLocator are we on?
-	private float currentLocatorFrequency; //Frequency equivalent to above
+	private Inflater inflater;
+	private byte[]   compressedChunk; //Compressed bytes not inflated yet
+	private int      compressedChunkLength;
+	private byte[]   inflated;
+	private boolean  compressionFailed;
 	
-	private ArrayList<Byte> currentDescriptorBytes;
-	private int             previousConvFreq; //If this is 1, then its a repeat
+	//----Lookup tables for transmissionSpeed, lowFrequency, sensitivity and method, rebuilt----
+	//----in place by the first symbol after one of them changes-------------------------------
+	private boolean   tablesStale;
+	private float[]   toneFrequencies; //tone k -> lowFrequency + sensitivity * k
+	private float[][] frequencyTable;  //converted frequency -> getFrequencies(converted frequency)
+	private int[]     valueTable;      //converted frequency -> value of the data symbol, or REPEAT
+	private int[]     locatorSymbols;  //tone -> LOCATOR symbol of its frequency
 	
-	private ArrayList<Byte> retrievedData;
+	//----Metrics, see TransmissionMetrics; counted here and added to "metrics" in batches----
+	private TransmissionMetrics metrics;
+	private long   stageStart; //System.nanoTime() when currentStage began, only kept with metrics
+	private long   symbolsDecoded;
+	private long   repeatMarkers;
+	private long   multiToneSymbols;
 	
 	/**
 	 * NOTES:
@@ -50,25 +108,64 @@ public class ReceiverParser {
 		this.lowFrequency = 0;
 		this.sensitivity = 0;
 		this.size = 0;
+		this.sampleRate = SenderParser.DEFAULT_SAMPLE_RATE;
 		
-		this.currentLocatorIndex = 0;
-		this.currentLocatorFrequency = SenderParser.transmissionLocator[currentLocatorIndex];
+		this.locatorState = LocatorAutomaton.START;
 		
-		this.currentDescriptorBytes = new ArrayList<Byte>();
+		this.descriptorBytes = new byte[DESCRIPTOR_BYTES];
 		
-		this.retrievedData = new ArrayList<Byte>();
+		this.retrievedData = new GrowableByteBuffer();
+		this.encodedData = new GrowableByteBuffer();
+		
+		this.tablesStale = true;
+		startDescriptor();
+		startData();
 	}
 	
-	public void setTs(int ts) { this.transmissionSpeed = ts; }
-	public void setLf(float lf) { this.lowFrequency = lf; }
-	public void setS(float s) { this.sensitivity = s; }
-	public void setM(int m) { this.method = m; }
+	public void setTs(int ts) { if(ts != transmissionSpeed) { this.transmissionSpeed = ts; tablesStale = true; } }
+	public void setLf(float lf) { if(lf != lowFrequency) { this.lowFrequency = lf; tablesStale = true; } }
+	public void setS(float s) { if(s != sensitivity) { this.sensitivity = s; tablesStale = true; } }
+	public void setM(int m) { if(m != method) { this.method = m; tablesStale = true; } }
 	public void setSize(int size) { this.size = size; }
-	public void setCurrentStage(Stage stage) { this.currentStage = stage; }
+	public void setCurrentStage(Stage stage) {
+		enterStage(stage);
+		if(stage == Stage.DETERMINE) startDescriptor();
+		if(stage == Stage.DECODE) startData();
+	}
+	//Null (the default) turns metrics off
+	public void setMetrics(TransmissionMetrics metrics) {
+		this.metrics = metrics;
+		this.symbolsDecoded = 0;
+		this.repeatMarkers = 0;
+		this.multiToneSymbols = 0;
+		this.stageStart = System.nanoTime();
+	}
+	public TransmissionMetrics getMetrics() { return metrics; }
+	/**
+	 * Gets ready for the next transmission: the decoded data and everything the descriptor set
+	 * except the tone plan are dropped.  Buffers are kept for reuse, unless a big transmission
+	 * grew them past RETAINED_CAPACITY.
+	 */
 	public void reset() {
+		//A stage that was cut off isn't timed
+		flushMetrics();
 		this.currentStage = Stage.LOCATE;
-		this.currentLocatorIndex = 0;
-		this.currentLocatorFrequency = SenderParser.transmissionLocator[currentLocatorIndex];
+		if(metrics != null) stageStart = System.nanoTime();
+		this.size = 0;
+		this.fecParity = 0;
+		this.compression = SenderParser.COMPRESSION_NONE;
+		this.sampleRate = SenderParser.DEFAULT_SAMPLE_RATE;
+		
+		if(retrievedData.capacity() > RETAINED_CAPACITY) {
+			retrievedData = new GrowableByteBuffer();
+		}
+		retrievedData.clear();
+		if(encodedData.capacity() > RETAINED_CAPACITY) {
+			encodedData = new GrowableByteBuffer();
+		}
+		
+		startDescriptor();
+		startData();
 	}
 	public Stage getCurrentStage() { return this.currentStage; }
 	public int getTs() { return transmissionSpeed; }
@@ -76,49 +173,139 @@ public class ReceiverParser {
 	public float getS() { return sensitivity; }
 	public int getM() { return method; }
 	public int getSize() { return size; }
-	public byte[] getData() { 
-		Byte[] bytes = retrievedData.toArray(new Byte[retrievedData.size()]);
-		
-		byte[] toReturn = new byte[bytes.length];
-		
-		for(int i = 0; i < bytes.length; i++) {
-			toReturn[i] = bytes[i];
+	public int getFecParity() { return fecParity; }
+	public int getCompression() { return compression; }
+	public int getSampleRate() { return sampleRate; }
+	//Whether the last transmission's compressed payload was corrupt, its data is then incomplete
+	public boolean hasCompressionFailed() { return compressionFailed; }
+	//Bytes the forward error correction fixed in the last transmission
+	public int getCorrectedBytes() { return correctedBytes; }
+	//Codewords of the last transmission that had too many errors to fix
+	public int getFailedCodewords() { return failedCodewords; }
+	//Everything decoded since the receiver was made or reset, less what drainData took
+	public byte[] getData() { return retrievedData.toByteArray(); }
+	//Read-only view of the decoded bytes without copying, valid until more data is decoded
+	public ByteBuffer getDataBuffer() { return retrievedData.asReadOnlyBuffer(); }
+	
+	public float[] getFrequencies(int value) {
+		if(tablesStale) buildTables();
+		if(value < frequencyTable.length) {
+			return value <= 0 ? new float[0] : frequencyTable[value].clone();
 		}
-		
-		return toReturn;
+		return computeFrequencies(value);
 	}
 	
-	public float[] getFrequencies(int value) {
-		int[] convertedFrequencies = new int[transmissionSpeed + 2];
-		int maxValue = (int)Math.round(Math.pow(2, transmissionSpeed + 1));
-		int currentIndex = 0;
-		
-		while(value > 0) {
-			if(value >= maxValue) {
-				convertedFrequencies[currentIndex] = maxValue;
-				value -= maxValue;
-				currentIndex += 1;
-			}
-			maxValue /= 2;
+	/**
+	 * Builds the per-configuration tables, so that turning a converted frequency into
+	 * frequencies or a value is an array lookup instead of Math.pow / Math.log10 calls.
+	 * Tables of the size that's needed are refilled rather than allocated again.
+	 */
+	private void buildTables() {
+		tablesStale = false;
+		if(toneFrequencies == null) {
+			toneFrequencies = new float[MAX_TONES];
+			locatorSymbols = new int[MAX_TONES];
 		}
-		
-		float[] frequencies = new float[currentIndex];
-		for(int k = 0; k < currentIndex; k++) {
-			frequencies[k] = lowFrequency + sensitivity * (float)(Math.log10(convertedFrequencies[k]) / Math.log10(2));
+		for(int k = 0; k < MAX_TONES; k++) {
+			toneFrequencies[k] = lowFrequency + sensitivity * k;
+			locatorSymbols[k] = LOCATOR.symbolOf(toneFrequencies[k]);
 		}
 		
+		//Enough for every code a DIRECT transmission (the widest tone plan) can produce,
+		//anything bigger falls back to computing it
+		int tableBits = Math.min(MAX_TABLE_BITS, SenderParser.getNumTones(Math.max(1, transmissionSpeed), SenderParser.DIRECT));
+		if(frequencyTable == null || frequencyTable.length != 1 << tableBits) {
+			frequencyTable = new float[1 << tableBits][];
+			valueTable = new int[1 << tableBits];
+		}
+		for(int code = 1; code < frequencyTable.length; code++) {
+			if(frequencyTable[code] == null) {
+				frequencyTable[code] = new float[Integer.bitCount(code)];
+			}
+			fillFrequencies(code, frequencyTable[code]);
+			valueTable[code] = computeValue(code, method);
+		}
+		valueTable[0] = NO_VALUE;
+	}
+	
+	//Frequencies of every tone in the converted frequency, highest first
+	private float[] computeFrequencies(int value) {
+		float[] frequencies = new float[Integer.bitCount(value)];
+		fillFrequencies(value, frequencies);
 		return frequencies;
 	}
 	
+	private void fillFrequencies(int value, float[] frequencies) {
+		for(int k = 0; value != 0; k++) {
+			int tone = 31 - Integer.numberOfLeadingZeros(value);
+			frequencies[k] = toneFrequencies[tone];
+			value &= ~(1 << tone);
+		}
+	}
+	
+	/**
+	 * Tone 0 is always the repeat marker.  For DIRECT only the highest tone counts, and tone k
+	 * carries the value k - 1.  For CASCADE (see SenderParser.createSineWaveCascade) tone 1 alone
+	 * is a value of 0 and tones 2 and up are the bits of the value.
+	 */
+	private static int computeValue(int convertedFrequency, int method) {
+		if(method == SenderParser.CASCADE && convertedFrequency > 3) {
+			return convertedFrequency >>> 2;
+		}
+		int tone = 31 - Integer.numberOfLeadingZeros(convertedFrequency);
+		return tone == 0 ? REPEAT : tone - 1;
+	}
+	
+	private int symbolValue(int convertedFrequency) {
+		return convertedFrequency < valueTable.length ? valueTable[convertedFrequency] : computeValue(convertedFrequency, method);
+	}
+	
 	public boolean floatEquals(float a, float b) {
 		return a-Float.MIN_NORMAL <= b && a+Float.MIN_NORMAL >= b;
 	}
 	
 	public void receiveAudio(int[] convertedFrequencies) {
+		receiveAudio(convertedFrequencies, 0, convertedFrequencies.length);
+	}
+	
+	/**
+	 * Feeds "length" symbols starting at "offset" through the receiver.  Everything that
+	 * is only partly received (locator progress, descriptor bits, the byte being built, the
+	 * previous symbol for repeats) is kept between calls, so a transmission can arrive in
+	 * chunks of any size.  Each symbol is looked at exactly once and nothing is allocated.
+	 */
+	public void receiveAudio(int[] convertedFrequencies, int offset, int length) {
+		for(int i = offset, end = offset + length; i < end && currentStage != Stage.FINISH; i++) {
+			receiveSymbol(convertedFrequencies[i]);
+		}
+		flushMetrics();
+	}
+	
+	/**
+	 * Feeds one symbol through the receiver.  Its counts only reach the metrics at the next
+	 * stage change or flushMetrics call.
+	 */
+	public void receiveSymbol(int convertedFrequency) {
+		//No tone heard
+		if(convertedFrequency <= 0) return;
+		if(tablesStale) buildTables();
+		//Only CASCADE data is sent more than one tone at a time
+		if((convertedFrequency & (convertedFrequency - 1)) != 0
+				&& (currentStage != Stage.DECODE || method != SenderParser.CASCADE || dataComplete || decodedBytes >= size)) {
+			multiToneSymbols++;
+		}
+		
 		switch(currentStage) {
-		case LOCATE: locateAudio(convertedFrequencies); break;
-		case DETERMINE: determineAudio(convertedFrequencies, 0); break;
-		case DECODE: decodeAudio(convertedFrequencies, 0); break;
+		case LOCATE: locateSymbol(convertedFrequency); break;
+		case DETERMINE: determineSymbol(convertedFrequency); break;
+		case DECODE:
+			//Once all "size" bytes are in, only the trailing locator is left
+			if(dataComplete || decodedBytes >= size) {
+				locateSymbol(convertedFrequency);
+			} else {
+				decodeSymbol(convertedFrequency);
+			}
+			break;
 		case FINISH: break;
 		}
 	}
@@ -127,40 +314,37 @@ public class ReceiverParser {
 	 * convertedFrequencies = the array that the other audio API gives
 	 */
 	public void locateAudio(int[] convertedFrequencies) {
-		for(int i = 0; i < convertedFrequencies.length; i++) {
-			//Get the first value in the the array
-			int currentValue = convertedFrequencies[i];
-			
-			float[] frequencies = getFrequencies(currentValue);
-			
-			//Just for now, may change
-			if(frequencies.length > 1) {
-				currentLocatorIndex = 0;
-				currentLocatorFrequency = SenderParser.transmissionLocator[currentLocatorIndex];
-			}
-			
-			float frequency = frequencies[0];
-			
-			//If that value 
-			if(floatEquals(frequency, currentLocatorFrequency)) {
-				currentLocatorIndex += 1;
-				if(currentLocatorIndex >= SenderParser.transmissionLocator.length) {
-					//Found the entire locator
-					currentStage = Stage.DETERMINE;
-					//HERE IS WHERE YOU SHOULD PRINT A STATEMENT SAYING LOCATOR FOUND
-					determineAudio(convertedFrequencies, i+1);
-					return;
-				} else {
-					currentLocatorFrequency = SenderParser.transmissionLocator[currentLocatorIndex];
-				}
+		receiveAudio(convertedFrequencies);
+	}
+	
+	public void determineAudio(int[] convertedFrequencies, int index) {
+		if(index >= convertedFrequencies.length) return;
+		receiveAudio(convertedFrequencies, index, convertedFrequencies.length - index);
+	}
+	
+	//Look for the locator at the end of the decode
+	public void decodeAudio(int[] convertedFrequencies, int index) {
+		if(index >= convertedFrequencies.length) return;
+		receiveAudio(convertedFrequencies, index, convertedFrequencies.length - index);
+	}
+	
+	//Used for the locator at the start (LOCATE) and at the end (after the data in DECODE)
+	private void locateSymbol(int convertedFrequency) {
+		//The locator is one tone at a time
+		int symbol = Integer.bitCount(convertedFrequency) > 1 ? LOCATOR.getOtherSymbol()
+				: locatorSymbols[31 - Integer.numberOfLeadingZeros(convertedFrequency)];
+		locatorState = LOCATOR.next(locatorState, symbol);
+		
+		if(LOCATOR.match(locatorState) != LocatorAutomaton.NO_MATCH) {
+			//Found the entire locator
+			locatorState = LocatorAutomaton.START;
+			if(currentStage == Stage.LOCATE) {
+				enterStage(Stage.DETERMINE);
+				startDescriptor();
 			} else {
-				//Here we can add fault tolerance; however, that's already built into
-				//the convertedFrequencies that I'm receiving so probably unnecessary.
-				currentLocatorIndex = 0;
-				currentLocatorFrequency = SenderParser.transmissionLocator[currentLocatorIndex];
+				finishAudio();
 			}
 		}
-		//UNLOCATED
 	}
 	
 	public static String byteToString(byte b) {
@@ -179,107 +363,253 @@ public class ReceiverParser {
         return str;
     }
 	
-	public void determineAudio(int[] convertedFrequencies, int index) {
-		if(index >= convertedFrequencies.length) return;
-		float[][] frequencies = new float[1][convertedFrequencies.length];
-		
-		for(int k = index, currentIndex = 0; k < convertedFrequencies.length; k++, currentIndex++) {
-			frequencies[0][currentIndex] = getFrequencies(convertedFrequencies[k])[0];
+	private void startDescriptor() {
+		for(int i = 0; i < descriptorBytes.length; i++) {
+			descriptorBytes[i] = 0;
 		}
+		descriptorBitIndex = 0;
+		previousSymbol = NO_VALUE;
+		previousValue = 0;
+	}
+	
+	private void determineSymbol(int convertedFrequency) {
+		int value = relevantValue(computeValue(convertedFrequency, SenderParser.DIRECT));
+		if(value == NO_VALUE) return;
 		
-		byte[] decoded = decodeData(frequencies, 20, 1, 14000, 500);
+		//The descriptor is always one bit per symbol
+		if(value != 0) {
+			descriptorBytes[descriptorBitIndex / BYTE_LENGTH] |= 0x80 >>> (descriptorBitIndex % BYTE_LENGTH);
+		}
+		descriptorBitIndex++;
 		
-		if(lastDecodeBytes >= 20) {
+		if(descriptorBitIndex == DESCRIPTOR_BYTES * BYTE_LENGTH) {
 			//Next Stage, Success!
-			ByteBuffer buff = ByteBuffer.wrap(decoded);
-			transmissionSpeed = buff.getInt();
-			lowFrequency = buff.getFloat();
-			sensitivity = buff.getFloat();
-			method = buff.getInt();
-			size = buff.getInt();
+			ByteBuffer buff = ByteBuffer.wrap(descriptorBytes);
+			int   ts = buff.getInt();
+			float lf = buff.getFloat();
+			float s  = buff.getFloat();
+			int   m  = buff.getInt();
+			int   sz = buff.getInt();
 			
-			currentStage = Stage.DECODE;
-			decodeAudio(convertedFrequencies, index += 20 * 8);
-		} else {
-			//Can do this later, should barely ever happen anyway
+			int modulation = SenderParser.getModulation(m);
+			int parity = SenderParser.getFecParity(m);
+			int codec = SenderParser.getCompression(m);
+			int rate = SenderParser.getSampleRate(m);
+			
+			//A misheard descriptor can't be decoded with, so keep the current tone plan and
+			//go back to looking for a locator
+			if(ts < 1 || ts > SymbolEncoder.MAX_TRANSMISSION_SPEED || sz < 0 || !(s > 0) || !(lf > 0)
+					|| modulation < SenderParser.DIRECT || modulation > SenderParser.CASCADE
+					|| (parity != 0 && (parity % 2 != 0 || ForwardErrorCorrection.payloadLength(sz, parity) < 0))
+					|| (codec != SenderParser.COMPRESSION_NONE && codec != SenderParser.COMPRESSION_DEFLATE)
+					|| rate < 0 || lf + s * (SenderParser.getNumTones(ts, modulation) - 1) >= rate / 2f) {
+				enterStage(Stage.LOCATE);
+				locatorState = LocatorAutomaton.START;
+				if(metrics != null) metrics.locatorResynced();
+				return;
+			}
+			setTs(ts);
+			setLf(lf);
+			setS(s);
+			setM(modulation);
+			size = sz;
+			fecParity = parity;
+			compression = codec;
+			sampleRate = rate;
+			
+			enterStage(Stage.DECODE);
+			startData();
+			if(size == 0) {
+				//No data symbols are coming, the data section is complete as it is and only the
+				//trailing locator is left
+				finishData();
+				return;
+			}
+			if(fecParity != 0) {
+				encodedData.ensureCapacity(Math.min(size, MAX_PREALLOCATION));
+			}
+			retrievedData.ensureCapacity(retrievedData.size() + Math.min(size, MAX_PREALLOCATION));
 		}
 	}
 	
-	//Look for the descriptor at the end of the decode
-	public void decodeAudio(int[] convertedFrequencies, int index) {
-		currentLocatorIndex = 0;
-		currentLocatorFrequency = SenderParser.transmissionLocator[currentLocatorIndex];
-		float[] data = new float[convertedFrequencies.length];
-		int   currentDataIndex = 0;
-		int i, j;
-		for(i = index, j = 0;
-				i < convertedFrequencies.length &&
-				j < (size * 8 + SenderParser.transmissionLocator.length);
-				i++, j++) {
-			//Get the first value in the the array
-			int currentValue = convertedFrequencies[i];
-						
-			float[] frequencies = getFrequencies(currentValue);
+	/**
+	 * Applies the same rules as decodeData: a symbol equal to the one before it is just
+	 * replication and is skipped (returns NO_VALUE), and REPEAT stands for the last
+	 * symbol that carried a value.
+	 */
+	private int relevantValue(int symbol) {
+		if(symbol == previousSymbol || symbol == NO_VALUE) {
+			return NO_VALUE;
+		}
+		previousSymbol = symbol;
+		
+		if(symbol == REPEAT) {
+			repeatMarkers++;
+			return previousValue;
+		}
+		previousValue = symbol;
+		return symbol;
+	}
+	
+	private void startData() {
+		previousSymbol = NO_VALUE;
+		previousValue = 0;
+		currentByte = 0;
+		currentByteBitsRemaining = BYTE_LENGTH;
+		decodedBytes = 0;
+		dataComplete = false;
+		dataStart = retrievedData.size();
+		encodedData.clear();
+		correctedBytes = 0;
+		failedCodewords = 0;
+		compressionFailed = false;
+		if(compression != SenderParser.COMPRESSION_NONE) {
+			startInflating();
+		}
+		locatorState = LocatorAutomaton.START;
+	}
+	
+	private void decodeSymbol(int convertedFrequency) {
+		int currentValue = relevantValue(symbolValue(convertedFrequency));
+		if(currentValue == NO_VALUE) return;
+		symbolsDecoded++;
+		
+		int currentValueSize = transmissionSpeed;
+		
+		// Fill up bytes until you no longer can
+		while (currentValueSize >= currentByteBitsRemaining) {
+			// Since the currentValue by virtue of this branch fills up the
+			// remaining space in currentByte, we don't need to do any left shifting
+			currentByte |= (byte) (currentValue >>> (currentValueSize - currentByteBitsRemaining));
+			putData(currentByte);
+			decodedBytes++;
 			
-			//Just for now, may change
-			if(frequencies.length > 1) {
-				System.out.println("Over One");
-				currentLocatorIndex = 0;
-				currentLocatorFrequency = SenderParser.transmissionLocator[currentLocatorIndex];
-			}
+			// Erase the bits we just used up
+			currentValueSize -= currentByteBitsRemaining;
+			currentValue &= -1 >>> (INT_LENGTH - currentValueSize);
+			currentByteBitsRemaining = BYTE_LENGTH;
+			currentByte = 0;
 			
-			float frequency = frequencies[0];
-						
-			//If that value 
-			if(floatEquals(frequency, currentLocatorFrequency)) {
-				currentLocatorIndex += 1;
-				if(currentLocatorIndex >= SenderParser.transmissionLocator.length) {
-					//Found the entire locator
-					currentStage = Stage.FINISH;
-					//HERE IS WHERE YOU SHOULD PRINT A STATEMENT SAYING DATA FOUND
-					finishAudio(data);
-					currentLocatorIndex = 0;
-					break;
-				} else {
-					currentLocatorFrequency = SenderParser.transmissionLocator[currentLocatorIndex];
-				}
-			} else {
-				//Here we can add fault tolerance; however, that's already built into
-				//the convertedFrequencies that I'm receiving so probably unnecessary.
-				for(int k = 0; k < currentLocatorIndex; k++) {
-					data[currentDataIndex + k] = SenderParser.transmissionLocator[k];
-				}
-				currentDataIndex += currentLocatorIndex;
-				data[currentDataIndex] = frequency;
-				currentDataIndex += 1;
-				
-				currentLocatorIndex = 0;
-				currentLocatorFrequency = SenderParser.transmissionLocator[currentLocatorIndex];
+			if (decodedBytes >= size) {
+				//Whatever is left of this symbol is padding
+				finishData();
+				return;
 			}
 		}
-				
-		float[][] frequencies = new float[1][currentDataIndex];
-		for(int k = 0; k < currentDataIndex; k++) {
-			frequencies[0][k] = data[k];
-		}
 		
-		byte[] bytes = decodeData(frequencies, currentDataIndex / 8, transmissionSpeed, lowFrequency, sensitivity);
+		// Add the rest of the currentValue to currentByte, and left shift it to the very end
+		if (currentValueSize > 0) {
+			currentByte |= (byte) (currentValue << (currentByteBitsRemaining - currentValueSize));
+			currentByteBitsRemaining -= currentValueSize;
+		}
+	}
+	
+	/**
+	 * Where a byte of the data section goes: straight into retrievedData, or held back when
+	 * FEC needs the whole section, or inflated a chunk at a time when it's compressed.
+	 */
+	private void putData(byte b) {
+		if(fecParity != 0) {
+			encodedData.put(b);
+		} else if(compression != SenderParser.COMPRESSION_NONE) {
+			compressedChunk[compressedChunkLength++] = b;
+			if(compressedChunkLength == compressedChunk.length) {
+				inflate(compressedChunk, 0, compressedChunkLength);
+				compressedChunkLength = 0;
+			}
+		} else {
+			retrievedData.put(b);
+		}
+	}
+	
+	/**
+	 * Runs once the whole data section is in.  With FEC the held back section is corrected, and
+	 * with compression the rest of it is inflated; size then becomes the payload's length.
+	 */
+	private void finishData() {
+		dataComplete = true;
 		
-		for(int k = 0; k < bytes.length; k++) {
-			retrievedData.add(bytes[k]);
+		if(fecParity != 0) {
+			if(fec == null || fec.getParity() != fecParity) {
+				fec = new ForwardErrorCorrection(fecParity);
+			}
+			byte[] payload = new byte[ForwardErrorCorrection.payloadLength(encodedData.size(), fecParity)];
+			fec.decode(encodedData.toByteArray(), encodedData.size(), payload);
+			correctedBytes = fec.getCorrectedBytes();
+			failedCodewords = fec.getFailedCodewords();
+			encodedData.clear();
+			if(compression == SenderParser.COMPRESSION_NONE) {
+				retrievedData.put(payload, 0, payload.length);
+			} else {
+				inflate(payload, 0, payload.length);
+			}
+		} else if(compression != SenderParser.COMPRESSION_NONE) {
+			inflate(compressedChunk, 0, compressedChunkLength);
+			compressedChunkLength = 0;
 		}
 		
-		if(j < size) {
-			//Did not get full transmission
+		if(compression != SenderParser.COMPRESSION_NONE && !inflater.finished()) {
+			//Cut off or corrupted, what was inflated is kept but can't be trusted
+			compressionFailed = true;
 		}
+		size = retrievedData.size() - dataStart;
 	}
 	
-	public void finishAudio(float[] data) {
+	private void startInflating() {
+		if(inflater == null) {
+			inflater = new Inflater();
+			compressedChunk = new byte[INFLATE_CHUNK];
+			inflated = new byte[4096];
+		} else {
+			inflater.reset();
+		}
+		compressedChunkLength = 0;
+	}
+	
+	private void inflate(byte[] bytes, int offset, int length) {
+		if(compressionFailed || inflater.finished()) return;
 		
+		inflater.setInput(bytes, offset, length);
+		try {
+			int n;
+			while((n = inflater.inflate(inflated)) > 0) {
+				retrievedData.put(inflated, 0, n);
+			}
+		} catch (DataFormatException e) {
+			compressionFailed = true;
+		}
+		if(inflater.needsDictionary()) {
+			compressionFailed = true;
+		}
+	}
+	
+	public void finishAudio() {
+		enterStage(Stage.FINISH);
+	}
+	
+	//Times the stage being left, when metrics are on
+	private void enterStage(Stage stage) {
+		if(metrics != null && stage != currentStage) {
+			long now = System.nanoTime();
+			flushMetrics();
+			metrics.stageCompleted(currentStage, now - stageStart);
+			stageStart = now;
+		}
+		currentStage = stage;
+	}
+	
+	/**
+	 * Adds the symbols counted since the last flush to the metrics.  receiveAudio does this
+	 * itself, callers of receiveSymbol should now and then.
+	 */
+	public void flushMetrics() {
+		if(metrics == null) return;
+		metrics.addReceived(symbolsDecoded, repeatMarkers, multiToneSymbols);
+		symbolsDecoded = 0;
+		repeatMarkers = 0;
+		multiToneSymbols = 0;
 	}
 	
-	private int lastDecodeBytes;
-
 	/**
 	 * Decode the audio file AFTER relevant bits have been taken from the front
 	 * of the transmission that determine: Size TransmissionSpeed LowFrequency
@@ -349,8 +679,6 @@ public class ReceiverParser {
 
 				// Add to the array of bytes
 				bytes[currentByteIndex] = currentByte;
-								
-				lastDecodeBytes += 1;
 
 				// Maintain variables for correct execution
 				currentValueSize -= currentByteBitsRemaining; // Subtract the
@@ -389,4 +717,28 @@ public class ReceiverParser {
 		stream.write(bytes);
 		stream.close();
 	}
+	
+	/**
+	 * Writes the bytes decoded so far to "channel" and drops them from the receive buffer, so a
+	 * long transmission can be written out as it arrives instead of being held until the end.
+	 * With FEC nothing is decoded before the whole data section is in.  Returns the bytes written.
+	 */
+	public int drainData(WritableByteChannel channel) throws IOException {
+		int drained = retrievedData.size();
+		retrievedData.writeTo(channel);
+		retrievedData.clear();
+		//The payload's length is still retrievedData.size() - dataStart once it's done
+		dataStart -= drained;
+		return drained;
+	}
+	
+	/**
+	 * Writes the decoded data straight from the receive buffer, without copying it first
+	 */
+	public void createFile(String filepath) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filepath), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			retrievedData.writeTo(channel);
+		}
+	}
 }
\ No newline at end of file
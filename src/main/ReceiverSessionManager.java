@@ -0,0 +1,223 @@
+package main;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodes many streams of converted frequencies at once, e.g. one per capture point.
+ *
+ * Each stream id gets a session: a ReceiverParser and a lock-free queue of chunks waiting for
+ * it.  submit() only queues the chunk, and schedules the session on the worker pool if it
+ * isn't already, so a session is only ever run by one thread at a time while different
+ * sessions run in parallel.  Chunks of a stream are decoded in the order they were submitted.
+ *
+ * Whenever a session's receiver finishes a transmission the listener gets the data, on the
+ * worker thread, and the receiver is reset for the next one.  close(streamId) ends a session
+ * once its queued chunks are done; its receiver then goes back to a pool for the next stream.
+ *
+ * If the listener or the receiver throws, the session fails: the rest of its queued chunks are
+ * dropped, the exception goes to the FailureListener (or is printed if there is none), and the
+ * stream's next chunk starts a new session, which picks up at the next locator.
+ */
+public class ReceiverSessionManager<K> implements Closeable {
+	public interface Listener<K> {
+		//"receiver" still has the transmission's descriptor, it is reset once this returns
+		void transmissionReceived(K streamId, byte[] data, ReceiverParser receiver);
+	}
+
+	public interface FailureListener<K> {
+		//Called on the worker thread, after the session has been removed
+		void sessionFailed(K streamId, RuntimeException e);
+	}
+
+	//Queued in place of a chunk to end a session
+	private static final int[] CLOSE = new int[0];
+
+	private final ExecutorService pool;
+	private final float lowFrequency;
+	private final float sensitivity;
+	private final Listener<K> listener;
+
+	private final ConcurrentHashMap<K, Session> sessions = new ConcurrentHashMap<K, Session>();
+	private final Queue<ReceiverParser> idleReceivers = new ConcurrentLinkedQueue<ReceiverParser>();
+	//Updated once per chunk, not per symbol, so the workers hardly contend for it
+	private final AtomicLong symbolsProcessed = new AtomicLong();
+	private final AtomicLong transmissionsReceived = new AtomicLong();
+	private final AtomicLong sessionsFailed = new AtomicLong();
+	private volatile TransmissionMetrics metrics;
+	private volatile FailureListener<K> failureListener;
+
+	public ReceiverSessionManager(float lowFrequency, float sensitivity, Listener<K> listener) {
+		this(Runtime.getRuntime().availableProcessors(), lowFrequency, sensitivity, listener);
+	}
+
+	public ReceiverSessionManager(int threads, float lowFrequency, float sensitivity, Listener<K> listener) {
+		this.pool = Executors.newFixedThreadPool(threads);
+		this.lowFrequency = lowFrequency;
+		this.sensitivity = sensitivity;
+		this.listener = listener;
+	}
+
+	public int getActiveSessions() { return sessions.size(); }
+	public int getIdleReceivers() { return idleReceivers.size(); }
+	public long getSymbolsProcessed() { return symbolsProcessed.get(); }
+	public long getTransmissionsReceived() { return transmissionsReceived.get(); }
+	public long getSessionsFailed() { return sessionsFailed.get(); }
+	
+	//Shared by every session's receiver from their next chunk on, null turns metrics off
+	public void setMetrics(TransmissionMetrics metrics) { this.metrics = metrics; }
+	public TransmissionMetrics getMetrics() { return metrics; }
+
+	//Null (the default) prints the exceptions of failed sessions instead
+	public void setFailureListener(FailureListener<K> failureListener) { this.failureListener = failureListener; }
+
+	/**
+	 * Queues "length" converted frequencies of stream "streamId" starting at "offset".  They're
+	 * copied, so the caller can reuse the array.  After close(streamId) has returned, or the
+	 * stream's session has failed, they go to a new session.
+	 */
+	public void submit(K streamId, int[] convertedFrequencies, int offset, int length) {
+		session(streamId).enqueue(Arrays.copyOfRange(convertedFrequencies, offset, offset + length));
+	}
+
+	/**
+	 * Ends the session once what was submitted before has been decoded.  Chunks submitted from
+	 * here on start a new session; ones submitted by another thread while this runs may go to
+	 * either, and are dropped if they land behind the close.
+	 */
+	public void close(K streamId) {
+		Session session = sessions.remove(streamId);
+		if(session != null) {
+			session.enqueue(CLOSE);
+		}
+	}
+
+	//Lets queued chunks finish, then stops the workers
+	public void close() {
+		pool.shutdown();
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return pool.awaitTermination(timeout, unit);
+	}
+
+	private Session session(K streamId) {
+		Session session = sessions.get(streamId);
+		if(session == null) {
+			Session created = new Session(streamId);
+			session = sessions.putIfAbsent(streamId, created);
+			if(session == null) {
+				session = created;
+			}
+		}
+		return session;
+	}
+
+	private ReceiverParser newReceiver() {
+		ReceiverParser receiver = idleReceivers.poll();
+		if(receiver == null) {
+			receiver = new ReceiverParser();
+		}
+		receiver.setLf(lowFrequency);
+		receiver.setS(sensitivity);
+		receiver.setTs(1);
+		return receiver;
+	}
+
+	private class Session implements Runnable {
+		private final K streamId;
+		private final Queue<int[]> chunks = new ConcurrentLinkedQueue<int[]>();
+		//Set while the session is queued on or running in the pool
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		//Only touched by the thread running the session
+		private ReceiverParser receiver;
+		private boolean closed;
+
+		Session(K streamId) {
+			this.streamId = streamId;
+		}
+
+		void enqueue(int[] chunk) {
+			chunks.add(chunk);
+			if(scheduled.compareAndSet(false, true)) {
+				pool.execute(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			do {
+				try {
+					int[] chunk;
+					while((chunk = chunks.poll()) != null) {
+						if(chunk == CLOSE) {
+							retire();
+						} else if(!closed) {
+							try {
+								decode(chunk);
+							} catch(RuntimeException e) {
+								fail(e);
+							}
+						}
+					}
+				} finally {
+					//Whatever happened, a later submit has to be able to schedule the session again
+					scheduled.set(false);
+				}
+				//A chunk that arrived after the last poll but before the flag was cleared
+				//would otherwise wait for the next submit
+			} while(!chunks.isEmpty() && scheduled.compareAndSet(false, true));
+		}
+
+		private void decode(int[] chunk) {
+			if(receiver == null) {
+				receiver = newReceiver();
+			}
+			if(receiver.getMetrics() != metrics) {
+				receiver.setMetrics(metrics);
+			}
+			for(int code : chunk) {
+				receiver.receiveSymbol(code);
+				if(receiver.getCurrentStage() == ReceiverParser.Stage.FINISH) {
+					transmissionsReceived.incrementAndGet();
+					listener.transmissionReceived(streamId, receiver.getData(), receiver);
+					receiver.reset();
+				}
+			}
+			receiver.flushMetrics();
+			symbolsProcessed.addAndGet(chunk.length);
+		}
+
+		//The receiver is left half way through a symbol or a callback, so it isn't pooled
+		private void fail(RuntimeException e) {
+			closed = true;
+			sessions.remove(streamId, this);
+			receiver = null;
+			sessionsFailed.incrementAndGet();
+			FailureListener<K> failureListener = ReceiverSessionManager.this.failureListener;
+			if(failureListener != null) {
+				failureListener.sessionFailed(streamId, e);
+			} else {
+				e.printStackTrace();
+			}
+		}
+
+		private void retire() {
+			closed = true;
+			sessions.remove(streamId, this);
+			if(receiver != null) {
+				receiver.reset();
+				idleReceivers.add(receiver);
+				receiver = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package main;
+
+/**
+ * A Reed-Solomon code over GF(256) with "parity" check bytes per codeword, able to correct up
+ * to parity / 2 wrong bytes anywhere in a codeword.  Codewords are at most 255 bytes, data
+ * first and parity last, and can be shortened to any length above parity.
+ *
+ * Field arithmetic is done with log / antilog tables (primitive polynomial 0x11d, generator
+ * roots alpha^0 .. alpha^(parity - 1)).  All working space is allocated by the constructor,
+ * so encode and decode allocate nothing; an instance is therefore not thread safe.
+ */
+public class ReedSolomon {
+	public static final int MAX_CODEWORD = 255;
+
+	private static final int PRIMITIVE = 0x11d;
+	//EXP is doubled so that EXP[LOG[a] + LOG[b]] needs no modulo
+	private static final int[] EXP = new int[2 * MAX_CODEWORD];
+	private static final int[] LOG = new int[256];
+	//Full product table, MULTIPLY[a << 8 | b] = a * b, so the inner loops are one lookup per byte
+	private static final byte[] MULTIPLY = new byte[256 * 256];
+
+	static {
+		int x = 1;
+		for(int i = 0; i < MAX_CODEWORD; i++) {
+			EXP[i] = x;
+			EXP[i + MAX_CODEWORD] = x;
+			LOG[x] = i;
+			x <<= 1;
+			if(x > 0xFF) {
+				x ^= PRIMITIVE;
+			}
+		}
+		for(int a = 1; a < 256; a++) {
+			for(int b = 1; b < 256; b++) {
+				MULTIPLY[a << 8 | b] = (byte)EXP[LOG[a] + LOG[b]];
+			}
+		}
+	}
+
+	private final int parity;
+	//Generator polynomial, highest power first, generator[0] = 1
+	private final int[] generator;
+
+	//Decoding workspace, polynomials lowest power first
+	private final int[] syndromes;
+	private final int[] locator;
+	private final int[] previousLocator;
+	private final int[] scratch;
+	private final int[] evaluator;
+	private final int[] errorPositions;
+	private final int[] errorMagnitudes;
+
+	public ReedSolomon(int parity) {
+		if(parity < 2 || parity >= MAX_CODEWORD || parity % 2 != 0) {
+			throw new IllegalArgumentException("parity must be an even number between 2 and 254, was " + parity);
+		}
+		this.parity = parity;
+
+		generator = new int[parity + 1];
+		generator[0] = 1;
+		//Multiply out (x - alpha^0)(x - alpha^1)...
+		for(int i = 0; i < parity; i++) {
+			int root = EXP[i];
+			for(int j = i + 1; j > 0; j--) {
+				generator[j] ^= multiply(generator[j - 1], root);
+			}
+		}
+
+		syndromes = new int[parity];
+		locator = new int[parity + 1];
+		previousLocator = new int[parity + 1];
+		scratch = new int[parity + 1];
+		evaluator = new int[parity];
+		errorPositions = new int[parity / 2];
+		errorMagnitudes = new int[parity / 2];
+	}
+
+	public int getParity() { return parity; }
+
+	//Most data bytes a codeword can carry
+	public int getMaxData() { return MAX_CODEWORD - parity; }
+
+	private static int multiply(int a, int b) {
+		return MULTIPLY[a << 8 | b] & 0xFF;
+	}
+
+	private static int divide(int a, int b) {
+		return a == 0 ? 0 : EXP[LOG[a] + MAX_CODEWORD - LOG[b]];
+	}
+
+	/**
+	 * Computes the parity of "length" data bytes at "offset" and writes it right after them,
+	 * so codeword[offset, offset + length + parity) becomes a codeword.
+	 */
+	public void encode(byte[] codeword, int offset, int length) {
+		if(length < 0 || length + parity > MAX_CODEWORD) {
+			throw new IllegalArgumentException("A codeword can carry at most " + getMaxData() + " bytes, not " + length);
+		}
+		int parityOffset = offset + length;
+		for(int i = 0; i < parity; i++) {
+			codeword[parityOffset + i] = 0;
+		}
+		//Long division by the generator, the remainder is the parity
+		for(int i = 0; i < length; i++) {
+			int row = ((codeword[offset + i] ^ codeword[parityOffset]) & 0xFF) << 8;
+			for(int j = 0; j < parity - 1; j++) {
+				codeword[parityOffset + j] = (byte)(codeword[parityOffset + j + 1] ^ MULTIPLY[row | generator[j + 1]]);
+			}
+			codeword[parityOffset + parity - 1] = MULTIPLY[row | generator[parity]];
+		}
+	}
+
+	/**
+	 * Corrects the codeword codeword[offset, offset + length) in place.
+	 *
+	 * @return the number of bytes corrected, or -1 if there were too many errors to correct
+	 *         (the codeword is left as it was)
+	 */
+	public int decode(byte[] codeword, int offset, int length) {
+		//Evaluate the received polynomial at alpha^0 .. alpha^(parity - 1) by Horner's rule, all
+		//of them together so that the parity independent chains overlap
+		for(int i = 0; i < parity; i++) {
+			syndromes[i] = 0;
+		}
+		for(int j = 0; j < length; j++) {
+			int b = codeword[offset + j];
+			for(int i = 0; i < parity; i++) {
+				syndromes[i] = (MULTIPLY[syndromes[i] << 8 | EXP[i]] ^ b) & 0xFF;
+			}
+		}
+		boolean clean = true;
+		for(int i = 0; i < parity; i++) {
+			clean &= syndromes[i] == 0;
+		}
+		if(clean) {
+			return 0;
+		}
+
+		int degree = berlekampMassey();
+		if(degree > parity / 2) {
+			return -1;
+		}
+
+		//Chien search: position p (power length - 1 - p) is wrong if the locator has a root at alpha^-power
+		int found = 0;
+		for(int p = 0; p < length && found <= degree; p++) {
+			int inverse = EXP[(MAX_CODEWORD - (length - 1 - p)) % MAX_CODEWORD];
+			if(evaluate(locator, degree + 1, inverse) == 0) {
+				if(found == degree) {
+					return -1;
+				}
+				errorPositions[found++] = p;
+			}
+		}
+		if(found != degree) {
+			return -1;
+		}
+
+		//Error evaluator = syndromes * locator mod x^parity
+		for(int i = 0; i < parity; i++) {
+			int value = 0;
+			for(int j = 0; j <= Math.min(i, degree); j++) {
+				value ^= multiply(locator[j], syndromes[i - j]);
+			}
+			evaluator[i] = value;
+		}
+
+		//Forney: magnitude = X * evaluator(X^-1) / locator'(X^-1).  Every magnitude is worked out
+		//before any is applied, so a failure leaves the codeword as it was
+		for(int k = 0; k < found; k++) {
+			int power = length - 1 - errorPositions[k];
+			int x = EXP[power];
+			int inverse = EXP[(MAX_CODEWORD - power) % MAX_CODEWORD];
+			int derivative = 0;
+			//The formal derivative in GF(2^m) only keeps the odd powers
+			for(int i = 1; i <= degree; i += 2) {
+				derivative ^= multiply(locator[i], power(inverse, i - 1));
+			}
+			if(derivative == 0) {
+				return -1;
+			}
+			errorMagnitudes[k] = multiply(x, divide(evaluate(evaluator, parity, inverse), derivative));
+		}
+		for(int k = 0; k < found; k++) {
+			codeword[offset + errorPositions[k]] ^= (byte)errorMagnitudes[k];
+		}
+		return found;
+	}
+
+	//Finds the error locator from the syndromes, returns its degree
+	private int berlekampMassey() {
+		for(int i = 0; i <= parity; i++) {
+			locator[i] = 0;
+			previousLocator[i] = 0;
+		}
+		locator[0] = 1;
+		previousLocator[0] = 1;
+		int degree = 0;
+		int shift = 1;
+		int previousDiscrepancy = 1;
+
+		for(int n = 0; n < parity; n++) {
+			int discrepancy = syndromes[n];
+			for(int i = 1; i <= degree; i++) {
+				discrepancy ^= multiply(locator[i], syndromes[n - i]);
+			}
+			if(discrepancy == 0) {
+				shift++;
+				continue;
+			}
+
+			int factor = divide(discrepancy, previousDiscrepancy);
+			if(2 * degree <= n) {
+				System.arraycopy(locator, 0, scratch, 0, parity + 1);
+				subtractShifted(factor, shift);
+				System.arraycopy(scratch, 0, previousLocator, 0, parity + 1);
+				degree = n + 1 - degree;
+				previousDiscrepancy = discrepancy;
+				shift = 1;
+			} else {
+				subtractShifted(factor, shift);
+				shift++;
+			}
+		}
+		return degree;
+	}
+
+	//locator -= factor * x^shift * previousLocator
+	private void subtractShifted(int factor, int shift) {
+		for(int i = parity; i >= shift; i--) {
+			locator[i] ^= multiply(factor, previousLocator[i - shift]);
+		}
+	}
+
+	//Polynomial with "terms" coefficients, lowest power first, at x
+	private static int evaluate(int[] polynomial, int terms, int x) {
+		int value = 0;
+		for(int i = terms - 1; i >= 0; i--) {
+			value = multiply(value, x) ^ polynomial[i];
+		}
+		return value;
+	}
+
+	private static int power(int x, int exponent) {
+		if(exponent == 0) return 1;
+		if(x == 0) return 0;
+		return EXP[(LOG[x] * exponent) % MAX_CODEWORD];
+	}
+}
@@ -0,0 +1,12 @@
+package main;
+
+import java.io.IOException;
+
+/**
+ * Where SampleSource.writeTo puts samples: a WavStreamWriter, or a NullSampleSink to measure
+ * synthesis on its own.
+ */
+public interface SampleSink {
+	//"length" interleaved samples starting at "offset"
+	void write(float[] samples, int offset, int length) throws IOException;
+}
@@ -0,0 +1,41 @@
+package main;
+
+import java.io.IOException;
+
+/**
+ * Audio that is produced as it is asked for, e.g. by an audio callback that needs the next
+ * few milliseconds, instead of being rendered as a whole first.
+ *
+ * Samples are floats in [-1, 1], interleaved when there is more than one channel.  See
+ * SenderParser.openTransmission and TransmissionEncoder.open.
+ */
+public abstract class SampleSource {
+	//Frames handed to a sink at a time by writeTo
+	public static final int DEFAULT_BLOCK_FRAMES = 4096;
+
+	public abstract int getSampleRate();
+	public abstract int getNumChannels();
+
+	/**
+	 * Fills up to "frames" frames of "buffer" starting at "offset", i.e. frames * getNumChannels()
+	 * samples.  Returns how many frames were written, which is only less than "frames" at the
+	 * end of the audio, and -1 once there is nothing left.
+	 */
+	public abstract int read(float[] buffer, int offset, int frames) throws IOException;
+
+	//Reads everything that's left into "sink", DEFAULT_BLOCK_FRAMES at a time; returns the frames written
+	public long writeTo(SampleSink sink) throws IOException {
+		return writeTo(sink, DEFAULT_BLOCK_FRAMES);
+	}
+
+	public long writeTo(SampleSink sink, int blockFrames) throws IOException {
+		float[] block = new float[blockFrames * getNumChannels()];
+		long frames = 0;
+		int n;
+		while((n = read(block, 0, blockFrames)) >= 0) {
+			sink.write(block, 0, n * getNumChannels());
+			frames += n;
+		}
+		return frames;
+	}
+}
@@ -1,13 +1,12 @@
 package main;
 import java.io.*;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-
-import net.beadsproject.beads.data.SampleAudioFormat;
-import net.beadsproject.beads.data.audiofile.AudioFileType;
-import net.beadsproject.beads.data.audiofile.FileFormatException;
-import net.beadsproject.beads.data.audiofile.OperationUnsupportedException;
-import net.beadsproject.beads.data.audiofile.WavFileReaderWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
 
 /**
  * Parses a file to eventually be converted to a sound wave.
@@ -16,12 +15,45 @@ import net.beadsproject.beads.data.audiofile.WavFileReaderWriter;
  */
 public class SenderParser {
 
-	private static final int sampleRate = 44100;
+	public static final int DEFAULT_SAMPLE_RATE = 44100;
+	//The rates a transmission can be sent at, the index is what the descriptor carries (see
+	//withSampleRate), so 44100 being 0 keeps older descriptors valid
+	private static final int[] SAMPLE_RATES = {44100, 48000, 8000, 11025, 16000, 22050, 24000, 32000, 88200, 96000};
+	
+	private int sampleRate = DEFAULT_SAMPLE_RATE;
+	
+	public int getSampleRate() { return sampleRate; }
+	
+	/**
+	 * Sample rate of everything this encoder synthesizes and writes.  Replication is counted in
+	 * samples, so it has to be scaled with the rate to keep symbols as long in time.
+	 */
+	public void setSampleRate(int sampleRate) {
+		sampleRateCode(sampleRate);
+		this.sampleRate = sampleRate;
+		resetOscillators(oscillators.getNumChannels());
+	}
 	
 	public static final int DIRECT = 1;
 	public static final int BIT_BY_BIT = 2;
 	public static final int CASCADE = 3;
 	
+	//The method int in the descriptor carries more than the modulation: bits 0-7 are the
+	//modulation (DIRECT, BIT_BY_BIT, CASCADE), bits 8-15 the Reed-Solomon parity bytes
+	//per codeword, 0 for no forward error correction, bits 16-23 the compression codec and
+	//bits 24-31 the sample rate.  See withFec, withCompression and withSampleRate.
+	private static final int MODULATION_MASK = 0xFF;
+	private static final int FEC_SHIFT = 8;
+	private static final int FEC_MASK = 0xFF;
+	private static final int COMPRESSION_SHIFT = 16;
+	private static final int COMPRESSION_MASK = 0xFF;
+	private static final int SAMPLE_RATE_SHIFT = 24;
+	private static final int SAMPLE_RATE_MASK = 0xFF;
+	
+	public static final int COMPRESSION_NONE = 0;
+	//zlib wrapped DEFLATE (java.util.zip.Deflater), its Adler-32 catches a corrupted payload
+	public static final int COMPRESSION_DEFLATE = 1;
+	
 	//Assume that we're looking at a lowFrequency of 12000, a sensitivity of 500,
 	//and a transmission speed of 1 DIRECT for the locator and descriptor.  This means that
 	//the frequencies are as follows for sending the locator and descriptor:
@@ -30,38 +62,214 @@ public class SenderParser {
 	// 13000 : 1
 	// 12500 : 0
 	// 12000 : repeat of last value
-	public static float   transmissionLowFrequency = 14000;
-	public static float   transmissionHighFrequency = 15000;
-	public static float[] transmissionLocator = {14000, 15000, 14500, 15000, 14000, 15000 };
+	//Fixed so that encoders on different threads agree on them; don't modify the locator's contents
+	public static final float   transmissionLowFrequency = 14000;
+	public static final float   transmissionHighFrequency = 15000;
+	public static final float[] transmissionLocator = {14000, 15000, 14500, 15000, 14000, 15000 };
 	                                             //1,      4,     2,     4,     1,     4
 	
-	private ArrayList<Phi> phiList;
-	private static final int DIRECT_PHI = 0;
+	private OscillatorBank oscillators;
+	private static final int DIRECT_CHANNEL = 0;
+	private ParallelDirectSynthesizer parallelSynthesizer;
+	
+	//How a transmission with more than one channel (BIT_BY_BIT) is written to a file
+	public enum ChannelLayout {
+		INTERLEAVED, //One WAV channel per row, each on its own speaker
+		MIXDOWN      //Every row summed into a mono file, for a single speaker
+	}
+	private ChannelLayout channelLayout = ChannelLayout.INTERLEAVED;
+	//Sample format of the files written, 16 bit PCM is half the size of the default floats
+	private WavStreamWriter.SampleFormat sampleFormat = WavStreamWriter.SampleFormat.FLOAT_32;
+	//Rendered locators and descriptors, reused while the parameters stay the same
+	private WaveformCache waveformCache = new WaveformCache();
+	
+	//Null unless metrics are wanted, see TransmissionMetrics
+	private TransmissionMetrics metrics;
 	
 	public SenderParser() {
-		phiList = new ArrayList<Phi>();
-		phiList.add(new Phi(0));
+		oscillators = new OscillatorBank(1, sampleRate);
 	}
 	
-	//----------PHI METHODS
+	/**
+	 * Number of tones (lowFrequency + k * sensitivity, k = 0, 1, ...) the data section
+	 * of a transmission uses.  Tone 0 is always the repeat marker.
+	 */
+	public static int getNumTones(int transmissionSpeed, int method) {
+		if(method == DIRECT) {
+			//Tone 1 is a value of 0, up to tone 2^transmissionSpeed
+			return (1 << transmissionSpeed) + 1;
+		}
+		//Repeat, all zero, then one tone per bit
+		return transmissionSpeed + 2;
+	}
 	
-	public void resetPhiList() {
-	    phiList = new ArrayList<Phi>();
-	    phiList.add(new Phi(0));
+	/**
+	 * "method" with forward error correction: every codeword of up to 255 bytes gets "parity"
+	 * check bytes and can have parity / 2 of its bytes misheard, see ForwardErrorCorrection.
+	 * e.g. withFec(DIRECT, 32)
+	 */
+	public static int withFec(int method, int parity) {
+		if(parity != 0) {
+			//Fails early on a parity ReedSolomon can't do
+			new ReedSolomon(parity);
+		}
+		return (method & ~(FEC_MASK << FEC_SHIFT)) | (parity << FEC_SHIFT);
 	}
 	
-	public Phi getPhi(int index) {
-	    
-	    if(index >= phiList.size()) {
-	        for(int i = phiList.size(); i <= index; i++) {
-	            phiList.add(new Phi(0));
-	        }
-	    }
-	    
-	    return phiList.get(index);
+	public static int getModulation(int method) {
+		return method & MODULATION_MASK;
 	}
 	
-	//----------END PHI METHODS
+	public static int getFecParity(int method) {
+		return (method >>> FEC_SHIFT) & FEC_MASK;
+	}
+	
+	/**
+	 * "method" with the payload compressed by "codec" before it is sent, e.g.
+	 * withCompression(DIRECT, COMPRESSION_DEFLATE).  Compression comes before any FEC.
+	 */
+	public static int withCompression(int method, int codec) {
+		if(codec != COMPRESSION_NONE && codec != COMPRESSION_DEFLATE) {
+			throw new IllegalArgumentException("Unknown compression codec " + codec);
+		}
+		return (method & ~(COMPRESSION_MASK << COMPRESSION_SHIFT)) | (codec << COMPRESSION_SHIFT);
+	}
+	
+	public static int getCompression(int method) {
+		return (method >>> COMPRESSION_SHIFT) & COMPRESSION_MASK;
+	}
+	
+	/**
+	 * "method" with "sampleRate" in it.  createDescriptorBytes does this with the encoder's own
+	 * rate, so this is only needed for building descriptors by hand.
+	 */
+	public static int withSampleRate(int method, int sampleRate) {
+		return (method & ~(SAMPLE_RATE_MASK << SAMPLE_RATE_SHIFT)) | (sampleRateCode(sampleRate) << SAMPLE_RATE_SHIFT);
+	}
+	
+	//The sample rate a descriptor's method was sent at, -1 if it isn't one of SAMPLE_RATES
+	public static int getSampleRate(int method) {
+		int code = (method >>> SAMPLE_RATE_SHIFT) & SAMPLE_RATE_MASK;
+		return code < SAMPLE_RATES.length ? SAMPLE_RATES[code] : -1;
+	}
+	
+	private static int sampleRateCode(int sampleRate) {
+		for(int i = 0; i < SAMPLE_RATES.length; i++) {
+			if(SAMPLE_RATES[i] == sampleRate) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unsupported sample rate " + sampleRate + ", must be one of " + Arrays.toString(SAMPLE_RATES));
+	}
+	
+	//Highest tone a transmission plays, the locator's included
+	public static float getHighestFrequency(int transmissionSpeed, float lowFrequency, float sensitivity, int method) {
+		int numTones = getNumTones(transmissionSpeed, getModulation(method));
+		return Math.max(transmissionHighFrequency, lowFrequency + sensitivity * Math.max(2, numTones - 1));
+	}
+	
+	/**
+	 * The lowest supported sample rate that leaves a tone spacing between the highest tone of
+	 * this tone plan and the Nyquist frequency.  Anything above that only makes more samples.
+	 */
+	public static int getLowestSampleRate(int transmissionSpeed, float lowFrequency, float sensitivity, int method) {
+		float required = 2 * (getHighestFrequency(transmissionSpeed, lowFrequency, sensitivity, method) + sensitivity);
+		int lowest = -1;
+		for(int rate : SAMPLE_RATES) {
+			if(rate >= required && (lowest < 0 || rate < lowest)) {
+				lowest = rate;
+			}
+		}
+		if(lowest < 0) {
+			throw new IllegalArgumentException("No supported sample rate can carry tones up to " + required / 2 + "Hz");
+		}
+		return lowest;
+	}
+	
+	//Tones at or above Nyquist would alias onto other tones
+	private void checkTonePlan(int transmissionSpeed, float lowFrequency, float sensitivity, int method) {
+		float highest = getHighestFrequency(transmissionSpeed, lowFrequency, sensitivity, method);
+		if(highest >= sampleRate / 2f) {
+			throw new IllegalArgumentException("Tones up to " + highest + "Hz can't be played at " + sampleRate + "Hz");
+		}
+	}
+	
+	public static byte[] compress(byte[] bytes, int codec) {
+		if(codec == COMPRESSION_NONE) {
+			return bytes;
+		}
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+			byte[] buffer = new byte[4096];
+			while(!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	/**
+	 * What actually goes out as the data section (the payload compressed, then with FEC, as
+	 * the method asks) and the method for the descriptor.  Compression is dropped from the
+	 * method if it doesn't make the payload smaller.
+	 */
+	private static class EncodedPayload {
+		final byte[] bytes;
+		final int method;
+		
+		EncodedPayload(byte[] payload, int method) {
+			byte[] compressed = compress(payload, getCompression(method));
+			if(compressed.length >= payload.length) {
+				compressed = payload;
+				method = withCompression(method, COMPRESSION_NONE);
+			}
+			int parity = getFecParity(method);
+			this.bytes = parity == 0 ? compressed : new ForwardErrorCorrection(parity).encode(compressed);
+			this.method = method;
+		}
+	}
+	
+	//----------OSCILLATOR METHODS
+	
+	//Every channel starts at phase 0.  BIT_BY_BIT needs one oscillator per channel, CASCADE one per tone.
+	public void resetOscillators(int numChannels) {
+	    oscillators = new OscillatorBank(Math.max(1, numChannels), sampleRate);
+	}
+	
+	public OscillatorBank getOscillators() {
+	    return oscillators;
+	}
+	
+	public void setChannelLayout(ChannelLayout layout) { this.channelLayout = layout; }
+	public ChannelLayout getChannelLayout() { return channelLayout; }
+	public void setSampleFormat(WavStreamWriter.SampleFormat format) { this.sampleFormat = format; }
+	public WavStreamWriter.SampleFormat getSampleFormat() { return sampleFormat; }
+	//Encoders can share one cache, null turns caching off
+	public void setWaveformCache(WaveformCache cache) { this.waveformCache = cache; }
+	public WaveformCache getWaveformCache() { return waveformCache; }
+	//Null (the default) turns metrics off
+	public void setMetrics(TransmissionMetrics metrics) { this.metrics = metrics; }
+	public TransmissionMetrics getMetrics() { return metrics; }
+	
+	/**
+	 * Renders DIRECT sections on "pool", split into segments of "segmentSize" samples.  The
+	 * samples are exactly the same as the sequential render's.  A null pool goes back to
+	 * rendering on the calling thread.
+	 */
+	public void setParallelSynthesis(ForkJoinPool pool, int segmentSize) {
+	    parallelSynthesizer = pool == null ? null : new ParallelDirectSynthesizer(pool, segmentSize);
+	}
+	
+	public void setParallelSynthesis(ForkJoinPool pool) {
+	    setParallelSynthesis(pool, ParallelDirectSynthesizer.DEFAULT_SEGMENT_SIZE);
+	}
+	
+	//----------END OSCILLATOR METHODS
 	
 	//FOR TESTS:
 	//TransmissionSpeed = 1, LowFrequency = 14000, Sensitivity = 500, Method = 2
@@ -79,32 +287,49 @@ public class SenderParser {
 	}
 	
 	public float[] createDescriptor(int transmissionSpeed, float lowFrequency, float sensitivity, int replicationAmount, int method, int size) {
-		//number of bits to send = 32 + 32 + 32 + 32
-		byte[] bytes = new byte[20];		
-		
-		byte[] transmissionSpeedBytes = ByteBuffer.allocate(4).putInt(transmissionSpeed).array();
-		byte[] lowFrequencyBytes = ByteBuffer.allocate(4).putFloat(lowFrequency).array();
-		byte[] sensitivityBytes = ByteBuffer.allocate(4).putFloat(sensitivity).array();
-		byte[] methodBytes = ByteBuffer.allocate(4).putInt(method).array();
-		byte[] sizeBytes = ByteBuffer.allocate(4).putInt(size).array();
-		
-		for(int i = 0; i < transmissionSpeedBytes.length; i++) {
-			bytes[i] = transmissionSpeedBytes[i];
-		}
-		for(int i = 0; i < lowFrequencyBytes.length; i++) {
-			bytes[i+transmissionSpeedBytes.length] = lowFrequencyBytes[i]; 
-		}
-		for(int i = 0; i < sensitivityBytes.length; i++) {
-			bytes[i+transmissionSpeedBytes.length+lowFrequencyBytes.length] = sensitivityBytes[i]; 
-		}
-		for(int i = 0; i < methodBytes.length; i++) {
-			bytes[i+transmissionSpeedBytes.length+lowFrequencyBytes.length+sensitivityBytes.length] = methodBytes[i];
+		return createData(createDescriptorBytes(transmissionSpeed, lowFrequency, sensitivity, method, size), 1, lowFrequency, sensitivity, replicationAmount);
+	}
+	
+	/**
+	 * The locator rendered from phase 0, from the cache if it's there.  Both the leading and the
+	 * trailing locator are this same block.
+	 */
+	private WaveformCache.Section renderLocator(int replication) {
+		WaveformCache.Key key = WaveformCache.Key.locator(replication, sampleRate);
+		WaveformCache.Section section = waveformCache == null ? null : waveformCache.get(key);
+		if(section == null) {
+			oscillators.setPhase(DIRECT_CHANNEL, 0);
+			float[] samples = createSineWaveDirect(createLocator(replication), transmissionLowFrequency)[DIRECT_CHANNEL];
+			section = new WaveformCache.Section(samples, oscillators.getPhase(DIRECT_CHANNEL));
+			if(waveformCache != null) waveformCache.put(key, section);
 		}
-		for(int i = 0; i < sizeBytes.length; i++) {
-			bytes[i+transmissionSpeedBytes.length+lowFrequencyBytes.length+sensitivityBytes.length+methodBytes.length] = sizeBytes[i];
+		return section;
+	}
+	
+	//The descriptor rendered from where the locator leaves off, from the cache if it's there
+	private WaveformCache.Section renderDescriptor(int transmissionSpeed, float lowFrequency, float sensitivity,
+			int replication, int method, int size) {
+		WaveformCache.Key key = WaveformCache.Key.descriptor(transmissionSpeed, lowFrequency, sensitivity, replication, sampleRate, method, size);
+		WaveformCache.Section section = waveformCache == null ? null : waveformCache.get(key);
+		if(section == null) {
+			oscillators.setPhase(DIRECT_CHANNEL, renderLocator(replication).endPhase);
+			float[] frequencies = createDescriptor(transmissionSpeed, lowFrequency, sensitivity, replication, method, size);
+			float[] samples = createSineWaveDirect(frequencies, lowFrequency)[DIRECT_CHANNEL];
+			section = new WaveformCache.Section(samples, oscillators.getPhase(DIRECT_CHANNEL));
+			if(waveformCache != null) waveformCache.put(key, section);
 		}
-		
-		return createData(bytes, 1, lowFrequency, sensitivity, replicationAmount);
+		return section;
+	}
+	
+	public byte[] createDescriptorBytes(int transmissionSpeed, float lowFrequency, float sensitivity, int method, int size) {
+		//number of bits to send = 32 + 32 + 32 + 32 + 32
+		return ByteBuffer.allocate(20)
+				.putInt(transmissionSpeed)
+				.putFloat(lowFrequency)
+				.putFloat(sensitivity)
+				.putInt(withSampleRate(method, sampleRate))
+				.putInt(size)
+				.array();
 	}
 
 	/**
@@ -119,76 +344,61 @@ public class SenderParser {
 	 */
 	public float[] createData(byte[] bytes, int transmissionSpeed,
 			float lowFrequency, float sensitivity, int replicationAmount) {
-		int numBytes = bytes.length;
-		int numBits = numBytes * 8;
-		int paddingBits = (numBits % transmissionSpeed > 0) ? (transmissionSpeed - numBits
-				% transmissionSpeed) : 0;
-		int totalBits = numBits + paddingBits; // Padding at the end of the  transmission
-		int dataSize = totalBits / transmissionSpeed * replicationAmount;
-
-		// First dimension is the number of channels (frequency, overlay)
-		// Second dimension is the number of frames (time)
-		float[] data = new float[dataSize];
-		int byteIndex = 0;
-		int bitIndex = 0;
+		SymbolEncoder encoder = new SymbolEncoder(transmissionSpeed);
+		float[] toneFrequencies = transmissionSpeed <= SymbolEncoder.MAX_TABLE_SPEED
+				? SymbolEncoder.toneFrequencies(transmissionSpeed, lowFrequency, sensitivity) : null;
+		float[] data = new float[(int)SymbolEncoder.numSymbols(bytes.length, transmissionSpeed) * replicationAmount];
+		int[] symbols = getSymbolBuffer();
 		int dataIndex = 0;
-		int maskShiftAmount = 7; // Shifts left this amount
-		byte baseMask = 1;
-		byte currentByte = bytes[byteIndex];
-		float frequency;
-		float previousFrequency = -999999f; //Used to check for lowFrequency
 
-		while (dataIndex < dataSize) {
-			// Set up start of loop
-			frequency = lowFrequency + sensitivity;
+		//Symbols come out of the encoder a chunk at a time and are replicated straight into data
+		for (int offset = 0; offset < bytes.length; offset += ENCODE_CHUNK_BYTES) {
+			int length = Math.min(ENCODE_CHUNK_BYTES, bytes.length - offset);
+			int count = encoder.encode(bytes, offset, length, symbols, 0);
+			dataIndex = replicateSymbols(symbols, count, toneFrequencies, transmissionSpeed, lowFrequency, sensitivity,
+					data, dataIndex, replicationAmount);
+		}
+		int count = encoder.finish(symbols, 0);
+		replicateSymbols(symbols, count, toneFrequencies, transmissionSpeed, lowFrequency, sensitivity,
+				data, dataIndex, replicationAmount);
+
+		return data;
+	}
+
+	private static final int ENCODE_CHUNK_BYTES = 4096;
+	private int[] symbolBuffer;
 
-			// Loop equal to transmission speed
-			for (int i = 0; i < transmissionSpeed; i++) {
-				// If you overrun the current byte, fetch a new one
-				if (bitIndex > 7) {
-					byteIndex++;
+	//Reused between calls, ENCODE_CHUNK_BYTES can never make more than 8 symbols per byte
+	private int[] getSymbolBuffer() {
+		if (symbolBuffer == null) {
+			symbolBuffer = new int[ENCODE_CHUNK_BYTES * 8];
+		}
+		return symbolBuffer;
+	}
 
-					// Normal scenario, there are more bytes to process
-					// So reset variables for the new byte
-					if (byteIndex < numBytes) {
-						currentByte = bytes[byteIndex];
-						bitIndex = 0;
-						maskShiftAmount = 7;
-					}
-					// Padding scenario, all bytes have been processed and now
-					// padding must be added.
-					else {
-						currentByte = 0;
-						bitIndex = 0;
-						maskShiftAmount = 7;
-					}
-				}
-				byte currentBit = (byte) (currentByte & (baseMask << maskShiftAmount));
-				if (currentBit != 0) {
-					frequency += Math.pow(2, transmissionSpeed - i - 1)
-							* sensitivity;
-				}
-				bitIndex++;
-				maskShiftAmount--;
-			}
-			
-			float effectiveFrequency = frequency == previousFrequency ? lowFrequency : frequency;
-			
-			for (int i = 0; i < replicationAmount; i++) {
-				data[dataIndex + i] = effectiveFrequency;
+	//"toneFrequencies" is null for plans too wide to have a table, see SymbolEncoder.MAX_TABLE_SPEED
+	private static int replicateSymbols(int[] symbols, int count, float[] toneFrequencies,
+			int transmissionSpeed, float lowFrequency, float sensitivity,
+			float[] data, int dataIndex, int replicationAmount) {
+		for (int i = 0; i < count; i++) {
+			float frequency = toneFrequencies != null ? toneFrequencies[symbols[i]]
+					: SymbolEncoder.toneFrequency(symbols[i], transmissionSpeed, lowFrequency, sensitivity);
+			if (replicationAmount == 1) {
+				data[dataIndex++] = frequency;
+			} else {
+				Arrays.fill(data, dataIndex, dataIndex + replicationAmount, frequency);
+				dataIndex += replicationAmount;
 			}
-			
-			previousFrequency = effectiveFrequency;
-			
-			dataIndex += replicationAmount;
 		}
-		return data;
+		return dataIndex;
 	}
 	
 	//The data in frequencies should have the replication amount reflect the 
 	//amount of time that the user would like to play the sound, so no need to worry
-	//about that.
-	private float[][] createSineWave(float[] frequencies, int transmissionSpeed, float lowFrequency, float sensitivity, int replication, int method)
+	//about that.  Public so that synthesis can be driven (and measured) on its own; the
+	//oscillators have to be reset to the method's number of channels first, the way
+	//createAudioFile does.
+	public float[][] createSineWave(float[] frequencies, int transmissionSpeed, float lowFrequency, float sensitivity, int replication, int method)
 	{
 		if(method == DIRECT)
 		{
@@ -208,11 +418,10 @@ public class SenderParser {
 		
 		if(method == CASCADE)
 		{
-			//To use CASCADE, float[][] frequencies MUST have been made
-			//by createData(...) using any transmission speed, but for now a
-			//sensitivity of "500".
-			//When using CASCADE, "parameters"
-			return createSineWaveCascade(frequencies);
+			//To use CASCADE, float[] frequencies MUST have been made
+			//by createData(...) using the same transmission speed and a
+			//replicationAmount of 1, createSineWaveCascade does the replication.
+			return createSineWaveCascade(frequencies, lowFrequency, sensitivity, transmissionSpeed, replication);
 		}
 		//Used the below as reference
 		/*float[][] buffer = new float[1][frequencies[0].length];
@@ -228,20 +437,18 @@ public class SenderParser {
 	private float[][] createSineWaveDirect(float[] frequencies, float lowFrequency)
 	{
 		float[][] buffer = new float[1][frequencies.length];
-		float lastFrequency = 0;
-		double timeStep = 1.0 / sampleRate;
-		double pi = 2 * Math.PI;
-		for(int i = 0; i < frequencies.length; i++) {
-	        Phi currentPhi = getPhi(DIRECT_PHI);
-
-		    if(frequencies[i] != lastFrequency) {
-		        System.out.println("F: " + frequencies[i]);
-		        System.out.println("Phi value: " + currentPhi.getValue());
+		if(parallelSynthesizer != null) {
+			int phase = parallelSynthesizer.render(frequencies, oscillators.getPhase(DIRECT_CHANNEL), sampleRate, buffer[DIRECT_CHANNEL]);
+			oscillators.setPhase(DIRECT_CHANNEL, phase);
+			return buffer;
+		}
+		//Render each run of equal frequencies in one go, the phase carries over between runs
+		int runStart = 0;
+		for(int i = 1; i <= frequencies.length; i++) {
+		    if(i == frequencies.length || frequencies[i] != frequencies[runStart]) {
+		        oscillators.render(DIRECT_CHANNEL, frequencies[runStart], buffer[DIRECT_CHANNEL], runStart, i - runStart);
+		        runStart = i;
 		    }
-		    
-		    lastFrequency = frequencies[i];
-			buffer[DIRECT_PHI][i] = (float)Math.sin(pi * frequencies[i] * currentPhi.getValue());
-			currentPhi.addToValue(timeStep);
 		}
 				
 		return buffer;
@@ -305,8 +512,6 @@ public class SenderParser {
 		float[] currentFrequencies  = new float[numChannels];
 		float[] previousFrequencies = new float[numChannels];
 		float previousFrequency = -999999f;
-		double pi = 2 * Math.PI;
-		double timeStep = 1.0 / sampleRate;
 		//iterate over the frequencies, going by "numChannels" since each
 		//lump is part of a single float[][] column
 		//****DEBUG****
@@ -343,26 +548,17 @@ public class SenderParser {
 			if(isRepeat && !wasRepeat) {
 			    //In this case, the frequencies exactly match those played before.  Play the repeat
 			    //frequency (lowFrequency) on channel 0 and nothing else.
-                Phi currentPhi = getPhi(0);
-			    for(int r = 0; r < replication; r++) {
-			        buffer[0][currentFrequencyIndex*replication + r] = (float)Math.sin(pi * (repeatFrequency) * currentPhi.getValue());
-			        currentPhi.addToValue(timeStep);
-			    }
+			    oscillators.render(0, repeatFrequency, buffer[0], currentFrequencyIndex*replication, replication);
 			    for(int j = 1; j < numChannels; j++) {
 			        for(int r = 0; r < replication; r++) {
 			            buffer[j][currentFrequencyIndex*replication + r] = buffer[j][currentFrequencyIndex - 1]; //TODO: correct?
 			        }
 			    }
-			    System.out.println("Repeat");
 			    wasRepeat = true; //DEBUG
 			} else if(isZero) {
 			    //In this case, the frequencies all equal 0, and therefore need not be played.
 			    //Rather, the frequency (lowFrequency + sensitivity) is played instead
-			    Phi currentPhi = getPhi(0);
-			    for(int r = 0; r < replication; r++) {
-			        buffer[0][currentFrequencyIndex*replication + r] = (float)Math.sin(pi * (zeroFrequency) * currentPhi.getValue());
-			        currentPhi.addToValue(timeStep);
-			    }
+			    oscillators.render(0, zeroFrequency, buffer[0], currentFrequencyIndex*replication, replication);
 			    for(int j = 1; j < numChannels; j++) {
 			        for(int r = 0; r < replication; r++) {
 			            if(i != 0) { //Just in case the very first lump is 0
@@ -370,28 +566,20 @@ public class SenderParser {
 			            }
 			        }
 			    }
-			    System.out.println("All Zero");
 			    wasRepeat = false;
 			} else {
 			    //If you've reached this, then the current lump is unique and should play
 			    //all of its channels individually
-			    Phi currentPhi;
 			    for(int j = 0; j < numChannels; j++) {
 			        if(currentFrequencies[j] == rawTargetFrequency) {
-			            currentPhi = getPhi(j);
 			            float frequencyToPlay = lowFrequency + sensitivity * (j + 2);
-			            for(int r = 0; r < replication; r++) {
-			                buffer[j][currentFrequencyIndex*replication + r] = (float)Math.sin(pi * (frequencyToPlay) * currentPhi.getValue());
-			                currentPhi.addToValue(timeStep);
-			            }
-			            System.out.println("Channel[" + j + "] Frequency: " + frequencyToPlay);
+			            oscillators.render(j, frequencyToPlay, buffer[j], currentFrequencyIndex*replication, replication);
 			        } else {
 			            for(int r = 0; r < replication; r++) {
 			                if( i != 0) {
 			                    buffer[j][currentFrequencyIndex] = buffer[j][currentFrequencyIndex - 1];
 			                }
 			            }
-                        System.out.println("Channel[" + j + "] Zero");
 			        }
 			    }
 			    wasRepeat = false;
@@ -406,9 +594,45 @@ public class SenderParser {
 		return buffer;
 	}
 	
-	private float[][] createSineWaveCascade(float[] frequencies)
+	/**
+	 * Semantics: Plays every bit of a symbol at once, each on its own tone, so a symbol carries
+	 *            "transmissionSpeed" bits using only transmissionSpeed + 2 tones (DIRECT needs
+	 *            2^transmissionSpeed + 1 for the same).  Tone k is lf+k*s, and is bit k of the
+	 *            converted frequency the receiver gets:
+	 *            tone 0      = repeat of the last symbol (same as DIRECT)
+	 *            tone 1      = every bit is 0
+	 *            tone j + 2  = bit j of the symbol is 1
+	 *            So a symbol of 101 plays tones 2 and 4 together and is received as 10100, i.e.
+	 *            the value shifted left by two.  The tones share the amplitude so the peak stays at 1.
+	 */
+	private float[][] createSineWaveCascade(float[] frequencies, float lowFrequency, float sensitivity, int transmissionSpeed, int replication)
 	{
-		return null;
+		float[][] buffer = new float[1][frequencies.length * replication];
+		float zeroFrequency = lowFrequency + sensitivity;
+		
+		for(int i = 0; i < frequencies.length; i++) {
+			int offset = i * replication;
+			if(frequencies[i] == lowFrequency) {
+				oscillators.render(0, lowFrequency, buffer[0], offset, replication);
+				continue;
+			}
+			
+			int value = Math.round((frequencies[i] - zeroFrequency) / sensitivity);
+			if(value == 0) {
+				oscillators.render(1, zeroFrequency, buffer[0], offset, replication);
+				continue;
+			}
+			
+			//Each tone keeps its own phase, so a tone that stays on across symbols is continuous
+			float gain = 1.0f / Integer.bitCount(value);
+			for(int j = 0; j < transmissionSpeed; j++) {
+				if((value & (1 << j)) != 0) {
+					oscillators.renderAdd(j + 2, lowFrequency + sensitivity * (j + 2), gain, buffer[0], offset, replication);
+				}
+			}
+		}
+		
+		return buffer;
 	}
 	
 	
@@ -423,69 +647,177 @@ public class SenderParser {
 	 */
 	public void createAudioFile(byte[] bytes, String filePath,
 			int transmissionSpeed, float lowFrequency, float sensitivity, int replication, int method) {
-	    
-	    resetPhiList();
-		
-		float[] parsedLocator = createLocator(replication);
-		float[] parsedDescriptor = createDescriptor(transmissionSpeed, lowFrequency, sensitivity, replication, method, bytes.length);
-		float[] parsedData = createData(bytes, method == BIT_BY_BIT ? 1 : transmissionSpeed, lowFrequency, sensitivity, method == BIT_BY_BIT ? 1 : replication);
-	
-		float[][] locator = createSineWave(parsedLocator, 1, lowFrequency, sensitivity, replication, DIRECT);
-		float[][] descriptor = createSineWave(parsedDescriptor, 1, lowFrequency, sensitivity, replication, DIRECT);
-		float[][] data = createSineWave(parsedData, transmissionSpeed, lowFrequency, sensitivity, replication, method);
-		//float[][] transmission = new float[1][locator[0].length];
-		//float[][] transmission = new float[1][locator[0].length + descriptor[0].length];
-		float[][] transmission = new float[data.length][2 * locator[0].length + descriptor[0].length + data[0].length];
-
-		for(int i = 0; i < locator.length; i++) {
-			for(int j = 0; j < locator[i].length; j++) {
-				transmission[i][j] = locator[i][j];
-			}
+		//Written from openTransmission's source, so the sections are never copied into one transmission
+		try {
+			writeAudioFile(bytes, filePath, transmissionSpeed, lowFrequency, sensitivity, replication, method);
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
-		
-		for (int i = 0; i < descriptor.length; i++) {
-			for (int j = 0; j < descriptor[i].length; j++)
-			{
-				transmission[i][j+locator[i].length] = descriptor[i][j];
+	}
+	
+	/**
+	 * Writes every row of "transmission" as a channel of its own, or with MIXDOWN sums them
+	 * into a mono file normalized to full scale.  Either way the rows go straight into the
+	 * writer's conversion buffer, nothing the size of the transmission is allocated.
+	 */
+	public void writeTransmission(float[][] transmission, String filePath) throws IOException {
+		boolean mixdown = channelLayout == ChannelLayout.MIXDOWN && transmission.length > 1;
+		try (WavStreamWriter writer = new WavStreamWriter(filePath, sampleRate, mixdown ? 1 : transmission.length, sampleFormat)) {
+			if(mixdown) {
+				writer.writeMixdown(transmission, 0, transmission[0].length, WavStreamWriter.mixdownGain(transmission));
+			} else {
+				writer.write(transmission, 0, transmission[0].length);
 			}
 		}
-		
-		for (int i = 0; i < data.length; i++) {
-			for (int j = 0; j < data[i].length; j++)
-			{
-				transmission[i][j+locator[0].length+descriptor[0].length] = data[i][j];
+	}
+	
+	/**
+	 * The samples createAudioFile writes (locator, descriptor, data, locator), one row per channel.
+	 * The locator and descriptor are always one tone at a time, so they're only on channel 0.
+	 */
+	public float[][] createTransmission(byte[] bytes,
+			int transmissionSpeed, float lowFrequency, float sensitivity, int replication, int method) {
+		float[][][] sections = renderSections(bytes, transmissionSpeed, lowFrequency, sensitivity, replication, method);
+		int numChannels = sections[2].length;
+		int length = 0;
+		for(float[][] section : sections) {
+			length += section[0].length;
+		}
+		float[][] transmission = new float[numChannels][length];
+		int position = 0;
+		for(float[][] section : sections) {
+			for(int i = 0; i < section.length; i++) {
+				System.arraycopy(section[i], 0, transmission[i], position, section[i].length);
 			}
+			position += section[0].length;
 		}
+		return transmission;
+	}
+
+	/**
+	 * The locator, descriptor, data and locator of a transmission, each rendered on its own.
+	 * The data has a row per channel, the locator and descriptor only channel 0; the two
+	 * locators are the same array.
+	 */
+	private float[][][] renderSections(byte[] bytes,
+			int transmissionSpeed, float lowFrequency, float sensitivity, int replication, int method) {
+		//The descriptor gets the whole method, everything else only needs the modulation
+		EncodedPayload encoded = new EncodedPayload(bytes, method);
+		byte[] payload = encoded.bytes;
+		method = encoded.method;
+		int modulation = getModulation(method);
+		checkTonePlan(transmissionSpeed, lowFrequency, sensitivity, modulation);
+	    resetOscillators(modulation == CASCADE ? getNumTones(transmissionSpeed, CASCADE) : modulation == BIT_BY_BIT ? transmissionSpeed : 1);
 		
-		for(int i = 0; i < locator.length; i++) {
-			for(int j = 0; j < locator[i].length; j++) {
-				transmission[i][j+locator[0].length + descriptor[0].length + data[0].length] = locator[i][j];
-			}
+		float[] parsedData = createData(payload, modulation == BIT_BY_BIT ? 1 : transmissionSpeed, lowFrequency, sensitivity, modulation == DIRECT ? replication : 1);
+	
+		float[][] locator = {renderLocator(replication).samples};
+		WaveformCache.Section descriptorSection = renderDescriptor(transmissionSpeed, lowFrequency, sensitivity, replication, method, payload.length);
+		float[][] descriptor = {descriptorSection.samples};
+		//The data carries on from the descriptor's phase, as if they had been rendered together
+		oscillators.setPhase(DIRECT_CHANNEL, descriptorSection.endPhase);
+		float[][] data = createSineWave(parsedData, transmissionSpeed, lowFrequency, sensitivity, replication, modulation);
+		if(metrics != null) {
+			metrics.addSymbolsSynthesized(SymbolEncoder.numSymbols(payload.length, modulation == BIT_BY_BIT ? 1 : transmissionSpeed));
 		}
+		return new float[][][] {locator, descriptor, data, locator};
+	}
 
-		WavFileReaderWriter wfrw = new WavFileReaderWriter();
+	/**
+	 * Streaming version of createAudioFile.  openTransmission's source is read in blocks that
+	 * are written straight to the file, so for DIRECT peak memory does not depend on the size of
+	 * the payload.  createAudioFile now writes the same way, this is kept for its callers.
+	 * 
+	 * Only DIRECT is streamed symbol by symbol; other methods render their data section whole
+	 * first, see openTransmission.
+	 */
+	public void createAudioFileStreaming(byte[] bytes, String filePath,
+			int transmissionSpeed, float lowFrequency, float sensitivity, int replication, int method) {
 		try {
-			SampleAudioFormat format = new SampleAudioFormat(sampleRate, 32, 1); //FIX THIS
-			wfrw.writeAudioFile(transmission, filePath, AudioFileType.WAV, format);
+			writeAudioFile(bytes, filePath, transmissionSpeed, lowFrequency, sensitivity, replication, method);
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (OperationUnsupportedException e) {
-			e.printStackTrace();
-		} catch (FileFormatException e) {
-			e.printStackTrace();
 		}
 	}
+	
+	//createAudioFileStreaming, but failures are thrown instead of printed
+	void writeAudioFile(byte[] bytes, String filePath,
+			int transmissionSpeed, float lowFrequency, float sensitivity, int replication, int method) throws IOException {
+		writeAudioFile(openTransmission(bytes, transmissionSpeed, lowFrequency, sensitivity, replication, method), filePath);
+	}
+	
+	private void writeAudioFile(SampleSource source, String filePath) throws IOException {
+		try (WavStreamWriter writer = new WavStreamWriter(filePath, source.getSampleRate(), source.getNumChannels(), sampleFormat)) {
+			source.writeTo(writer);
+		}
+	}
+	
+	/**
+	 * The transmission createAudioFile writes, as a source that renders it as it is read.  For
+	 * DIRECT only the locator and descriptor are rendered up front (or come from the cache),
+	 * the data is synthesized a symbol at a time, so memory doesn't depend on the payload and
+	 * the first samples are ready right away.  FEC and compression still need the whole payload
+	 * to encode it first.  Other methods have their locator, descriptor and data rendered as
+	 * separate sections that are read out in place, one after the other, without being copied
+	 * into one transmission; with ChannelLayout.MIXDOWN they're mixed down to mono a block at
+	 * a time.
+	 *
+	 * The source doesn't share any state with this SenderParser once it's returned.
+	 */
+	public SampleSource openTransmission(byte[] bytes,
+			int transmissionSpeed, float lowFrequency, float sensitivity, int replication, int method) {
+		if(getModulation(method) != DIRECT) {
+			float[][][] sections = renderSections(bytes, transmissionSpeed, lowFrequency, sensitivity, replication, method);
+			int numChannels = sections[2].length;
+			return new ArraySampleSource(sections, numChannels, sampleRate, channelLayout == ChannelLayout.MIXDOWN && numChannels > 1);
+		}
+		
+		EncodedPayload payload = new EncodedPayload(bytes, method);
+		return openDirect(new FrequencyCursor(payload.bytes, transmissionSpeed, lowFrequency, sensitivity), payload.bytes.length,
+				transmissionSpeed, lowFrequency, sensitivity, replication, payload.method);
+	}
+	
+	/**
+	 * A transmission from createTransmission as a source, laid out like writeTransmission writes
+	 * it.  The rows are read in place as the source is read, with MIXDOWN they're summed a block
+	 * at a time, so nothing the size of the transmission is allocated.
+	 */
+	public SampleSource openTransmission(float[][] transmission) {
+		return new ArraySampleSource(transmission, sampleRate, channelLayout == ChannelLayout.MIXDOWN && transmission.length > 1);
+	}
+	
+	//A DIRECT transmission whose data symbols come from "data", "size" being the length of the data section
+	private SampleSource openDirect(FrequencyCursor data, int size,
+			int transmissionSpeed, float lowFrequency, float sensitivity, int replication, int method) {
+		checkTonePlan(transmissionSpeed, lowFrequency, sensitivity, method);
+		return new DirectSampleSource(renderLocator(replication),
+				renderDescriptor(transmissionSpeed, lowFrequency, sensitivity, replication, method, size),
+				data, replication, sampleRate, metrics);
+	}
 
+	/**
+	 * Converts the contents of "file" into an audio file.  DIRECT transmissions are streamed: the
+	 * file is read in bounded chunks and encoded as it goes, so heap use doesn't depend on its
+	 * size.  Other methods, FEC (which interleaves the whole payload) and compression still need
+	 * the whole payload in memory.
+	 */
 	public void parseFile(File file, String filePath, int transmissionSpeed, float lowFrequency, 
 			float sensitivity, int replication, int method) {
 		try {
-			// Put file bytes into fileData byte array
-			byte[] fileData = new byte[(int) file.length()];
-			FileInputStream in = new FileInputStream(file);
-			in.read(fileData);
-			in.close();
-
-			createAudioFile(fileData, filePath, transmissionSpeed, lowFrequency, sensitivity, replication, method);
+			if(method != DIRECT) {
+				createAudioFileStreaming(Files.readAllBytes(file.toPath()), filePath, transmissionSpeed, lowFrequency, sensitivity, replication, method);
+				return;
+			}
+			
+			try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				long size = in.size();
+				//The descriptor only has an int for the size
+				if(size > Integer.MAX_VALUE) {
+					throw new IOException(file + " is " + size + " bytes, a transmission can carry at most " + Integer.MAX_VALUE);
+				}
+				writeAudioFile(openDirect(new FrequencyCursor(in, size, transmissionSpeed, lowFrequency, sensitivity), (int)size,
+						transmissionSpeed, lowFrequency, sensitivity, replication, DIRECT), filePath);
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -0,0 +1,172 @@
+package main;
+
+/**
+ * Bulk, table driven version of the bit walking in SenderParser.createData.
+ *
+ * Bytes go in, tone indices come out: tone k stands for the frequency lowFrequency + k * sensitivity,
+ * so a value v is tone v + 1 and tone 0 is the repeat marker that replaces a symbol equal to the
+ * one before it.  When transmissionSpeed divides 8 every byte is looked up in a table of its
+ * symbols, otherwise bits go through a 64 bit reservoir.  Either way there is no per-bit masking
+ * and no Math.pow.
+ *
+ * Encoding can be done in pieces: leftover bits and the previous symbol are kept between calls
+ * to encode(), and finish() writes the final, zero padded symbol.
+ */
+public class SymbolEncoder {
+	public static final int REPEAT = 0;
+	//A converted frequency is an int with a bit per tone, so a tone plan has at most 31 tones,
+	//and CASCADE (a tone per bit plus repeat and zero) fits 29 bits into them
+	public static final int MAX_TRANSMISSION_SPEED = 29;
+	//Widest tone plan toneFrequencies makes a table for, 2^16 + 1 floats
+	public static final int MAX_TABLE_SPEED = 16;
+
+	private final int transmissionSpeed;
+	private final int mask;
+	//Symbols of every possible byte, 8 / transmissionSpeed of them per byte, or null
+	private final int[] byteSymbols;
+	private final int symbolsPerByte;
+
+	private long reservoir;
+	private int reservoirBits;
+	private int previousSymbol;
+
+	public SymbolEncoder(int transmissionSpeed) {
+		if(transmissionSpeed < 1 || transmissionSpeed > MAX_TRANSMISSION_SPEED) {
+			throw new IllegalArgumentException("transmissionSpeed must be between 1 and " + MAX_TRANSMISSION_SPEED + ", was " + transmissionSpeed);
+		}
+		this.transmissionSpeed = transmissionSpeed;
+		this.mask = (1 << transmissionSpeed) - 1;
+
+		if(8 % transmissionSpeed == 0) {
+			symbolsPerByte = 8 / transmissionSpeed;
+			byteSymbols = new int[256 * symbolsPerByte];
+			for(int b = 0; b < 256; b++) {
+				for(int j = 0; j < symbolsPerByte; j++) {
+					//Most significant bits go first, same as createData
+					byteSymbols[b * symbolsPerByte + j] = ((b >>> (8 - (j + 1) * transmissionSpeed)) & mask) + 1;
+				}
+			}
+		} else {
+			symbolsPerByte = 0;
+			byteSymbols = null;
+		}
+
+		reset();
+	}
+
+	public int getTransmissionSpeed() { return transmissionSpeed; }
+
+	public void reset() {
+		reservoir = 0;
+		reservoirBits = 0;
+		previousSymbol = -1;
+	}
+
+	/**
+	 * Number of symbols numBytes turn into, including the padded last one
+	 */
+	public static long numSymbols(long numBytes, int transmissionSpeed) {
+		return (numBytes * 8 + transmissionSpeed - 1) / transmissionSpeed;
+	}
+
+	/**
+	 * Most symbols encode() can write for "length" bytes
+	 */
+	public int maxSymbols(int length) {
+		return (int)((length * 8L + reservoirBits) / transmissionSpeed);
+	}
+
+	/**
+	 * Tone frequencies for every tone index, computed the same way createData always has
+	 * (starting at lowFrequency + sensitivity and adding 2^n * sensitivity per set bit),
+	 * so that the floats come out bit for bit the same.  Only up to MAX_TABLE_SPEED, wider
+	 * plans use toneFrequency one symbol at a time.
+	 */
+	public static float[] toneFrequencies(int transmissionSpeed, float lowFrequency, float sensitivity) {
+		if(transmissionSpeed < 1 || transmissionSpeed > MAX_TABLE_SPEED) {
+			throw new IllegalArgumentException("A table of tone frequencies is for transmissionSpeed 1 to " + MAX_TABLE_SPEED + ", was " + transmissionSpeed);
+		}
+		float[] frequencies = new float[(1 << transmissionSpeed) + 1];
+		for(int tone = 0; tone < frequencies.length; tone++) {
+			frequencies[tone] = toneFrequency(tone, transmissionSpeed, lowFrequency, sensitivity);
+		}
+		return frequencies;
+	}
+
+	//One entry of toneFrequencies, for plans too wide to have a table
+	public static float toneFrequency(int tone, int transmissionSpeed, float lowFrequency, float sensitivity) {
+		if(tone == REPEAT) {
+			return lowFrequency;
+		}
+		int value = tone - 1;
+		float frequency = lowFrequency + sensitivity;
+		for(int bit = transmissionSpeed - 1; bit >= 0; bit--) {
+			if((value & (1 << bit)) != 0) {
+				//Math.pow(2, bit) is exact, so this is the same double it always was
+				frequency += (double)(1L << bit) * sensitivity;
+			}
+		}
+		return frequency;
+	}
+
+	/**
+	 * Encodes "length" bytes starting at "offset" into tone indices, written to out starting
+	 * at "outOffset".  out needs room for maxSymbols(length).
+	 *
+	 * @return the number of symbols written
+	 */
+	public int encode(byte[] bytes, int offset, int length, int[] out, int outOffset) {
+		int o = outOffset;
+		int previous = previousSymbol;
+
+		if(byteSymbols != null) {
+			int per = symbolsPerByte;
+			for(int i = offset, end = offset + length; i < end; i++) {
+				int base = (bytes[i] & 0xFF) * per;
+				for(int j = 0; j < per; j++) {
+					int symbol = byteSymbols[base + j];
+					symbol = symbol == previous ? REPEAT : symbol;
+					out[o++] = symbol;
+					previous = symbol;
+				}
+			}
+		} else {
+			long bits = reservoir;
+			int count = reservoirBits;
+			for(int i = offset, end = offset + length; i < end; i++) {
+				bits = (bits << 8) | (bytes[i] & 0xFF);
+				count += 8;
+				while(count >= transmissionSpeed) {
+					count -= transmissionSpeed;
+					int symbol = (int)(bits >>> count) & mask;
+					symbol = symbol + 1 == previous ? REPEAT : symbol + 1;
+					out[o++] = symbol;
+					previous = symbol;
+				}
+			}
+			reservoir = bits;
+			reservoirBits = count;
+		}
+
+		previousSymbol = previous;
+		return o - outOffset;
+	}
+
+	/**
+	 * Writes the last symbol if there are bits left over, padded with 0s.
+	 *
+	 * @return the number of symbols written, 0 or 1
+	 */
+	public int finish(int[] out, int outOffset) {
+		if(reservoirBits == 0) {
+			return 0;
+		}
+		int symbol = (int)(reservoir << (transmissionSpeed - reservoirBits)) & mask;
+		symbol = symbol + 1 == previousSymbol ? REPEAT : symbol + 1;
+		out[outOffset] = symbol;
+		previousSymbol = symbol;
+		reservoir = 0;
+		reservoirBits = 0;
+		return 1;
+	}
+}
@@ -0,0 +1,27 @@
+package main;
+
+/**
+ * Turns raw PCM into the power-of-two tone codes that ReceiverParser.receiveAudio expects,
+ * bit k being the tone lowFrequency + k * sensitivity.  See GoertzelDemodulator, which runs
+ * one filter per tone, and FftDemodulator, whose cost doesn't depend on the number of tones.
+ */
+public interface ToneDetector {
+	int getSampleRate();
+	int getNumTones();
+
+	//Retunes to another tone plan and starts over
+	void setTonePlan(float lowFrequency, float sensitivity, int numTones);
+	//0 turns re-emitting a code that is held for more than a symbol off
+	void setSamplesPerSymbol(int samplesPerSymbol);
+	void reset();
+
+	//Upper bound on the codes a call to process() with "length" samples can produce
+	int maxCodes(int length);
+
+	/**
+	 * Runs "length" samples starting at "offset" through the detector and writes any new codes
+	 * into "codes" starting at "codesOffset", which needs room for maxCodes(length).  Returns
+	 * the number of codes written.
+	 */
+	int process(float[] samples, int offset, int length, int[] codes, int codesOffset);
+}
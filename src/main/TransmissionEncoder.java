@@ -0,0 +1,105 @@
+package main;
+
+import java.io.IOException;
+
+/**
+ * An immutable set of transmission parameters that turns payloads into audio files.
+ *
+ * SenderParser keeps oscillator phases and scratch buffers between calls, so one instance
+ * can't be used by two threads at once.  A TransmissionEncoder holds no such state: every
+ * encode gets its own SenderParser, so a single encoder can be shared by any number of
+ * threads.  The only thing shared between calls is the WaveformCache, which is synchronized.
+ *
+ * The with* methods return a copy with one parameter changed, e.g.
+ * new TransmissionEncoder(2, 14000, 500, 441, SenderParser.DIRECT).withSampleRate(48000)
+ */
+public final class TransmissionEncoder {
+	private final int   transmissionSpeed;
+	private final float lowFrequency;
+	private final float sensitivity;
+	private final int   replication;
+	private final int   method;
+	private final int   sampleRate;
+	private final WavStreamWriter.SampleFormat sampleFormat;
+	private final SenderParser.ChannelLayout channelLayout;
+	private final WaveformCache waveformCache;
+
+	public TransmissionEncoder(int transmissionSpeed, float lowFrequency, float sensitivity, int replication, int method) {
+		this(transmissionSpeed, lowFrequency, sensitivity, replication, method, SenderParser.DEFAULT_SAMPLE_RATE,
+				WavStreamWriter.SampleFormat.FLOAT_32, SenderParser.ChannelLayout.INTERLEAVED, new WaveformCache());
+	}
+
+	private TransmissionEncoder(int transmissionSpeed, float lowFrequency, float sensitivity, int replication, int method,
+			int sampleRate, WavStreamWriter.SampleFormat sampleFormat, SenderParser.ChannelLayout channelLayout,
+			WaveformCache waveformCache) {
+		//Fail here rather than in every encode
+		SenderParser.withSampleRate(method, sampleRate);
+		this.transmissionSpeed = transmissionSpeed;
+		this.lowFrequency = lowFrequency;
+		this.sensitivity = sensitivity;
+		this.replication = replication;
+		this.method = method;
+		this.sampleRate = sampleRate;
+		this.sampleFormat = sampleFormat;
+		this.channelLayout = channelLayout;
+		this.waveformCache = waveformCache;
+	}
+
+	public TransmissionEncoder withSampleRate(int sampleRate) {
+		return new TransmissionEncoder(transmissionSpeed, lowFrequency, sensitivity, replication, method,
+				sampleRate, sampleFormat, channelLayout, waveformCache);
+	}
+
+	public TransmissionEncoder withSampleFormat(WavStreamWriter.SampleFormat sampleFormat) {
+		return new TransmissionEncoder(transmissionSpeed, lowFrequency, sensitivity, replication, method,
+				sampleRate, sampleFormat, channelLayout, waveformCache);
+	}
+
+	public TransmissionEncoder withChannelLayout(SenderParser.ChannelLayout channelLayout) {
+		return new TransmissionEncoder(transmissionSpeed, lowFrequency, sensitivity, replication, method,
+				sampleRate, sampleFormat, channelLayout, waveformCache);
+	}
+
+	//Null turns caching off
+	public TransmissionEncoder withWaveformCache(WaveformCache waveformCache) {
+		return new TransmissionEncoder(transmissionSpeed, lowFrequency, sensitivity, replication, method,
+				sampleRate, sampleFormat, channelLayout, waveformCache);
+	}
+
+	public int getTs() { return transmissionSpeed; }
+	public float getLf() { return lowFrequency; }
+	public float getS() { return sensitivity; }
+	public int getReplication() { return replication; }
+	public int getM() { return method; }
+	public int getSampleRate() { return sampleRate; }
+	public WavStreamWriter.SampleFormat getSampleFormat() { return sampleFormat; }
+	public SenderParser.ChannelLayout getChannelLayout() { return channelLayout; }
+	public WaveformCache getWaveformCache() { return waveformCache; }
+
+	/**
+	 * Writes "payload" as a transmission to "filePath", streamed for DIRECT the same way
+	 * SenderParser.createAudioFileStreaming does.  Safe to call from several threads at once.
+	 */
+	public void encode(byte[] payload, String filePath) throws IOException {
+		newSender().writeAudioFile(payload, filePath, transmissionSpeed, lowFrequency, sensitivity, replication, method);
+	}
+
+	//"payload" as a transmission rendered as it is read, see SenderParser.openTransmission
+	public SampleSource open(byte[] payload) {
+		return newSender().openTransmission(payload, transmissionSpeed, lowFrequency, sensitivity, replication, method);
+	}
+
+	//The samples of a transmission of "payload", one row per channel
+	public float[][] encode(byte[] payload) {
+		return newSender().createTransmission(payload, transmissionSpeed, lowFrequency, sensitivity, replication, method);
+	}
+
+	private SenderParser newSender() {
+		SenderParser sender = new SenderParser();
+		sender.setSampleRate(sampleRate);
+		sender.setSampleFormat(sampleFormat);
+		sender.setChannelLayout(channelLayout);
+		sender.setWaveformCache(waveformCache);
+		return sender;
+	}
+}
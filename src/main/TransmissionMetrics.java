@@ -0,0 +1,126 @@
+package main;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and per-stage timings for senders and receivers, shown over JMX and handed to
+ * listeners.
+ *
+ * Metrics are off unless a registry is given to SenderParser.setMetrics or
+ * ReceiverParser.setMetrics.  Even then nothing here is touched per sample or per symbol:
+ * a receiver counts symbols in plain fields and adds them in once per receiveAudio call or
+ * stage change, and a sender adds its symbol count once per transmission.  One registry can
+ * be shared by any number of senders and receivers on any threads.
+ *
+ *   symbolsSynthesized  data symbols a sender turned into audio
+ *   symbolsDecoded      data symbols a receiver took bits from (replication and repeats are one)
+ *   locatorResyncs      times a receiver found a locator but had to go back to looking for one,
+ *                       because the descriptor after it was misheard
+ *   repeatMarkers       repeat tones heard in the descriptor and data
+ *   multiToneSymbols    symbols with more than one tone where only one was sent, i.e. noise
+ *                       (every CASCADE data symbol is multi-tone, so those aren't counted)
+ *
+ * A stage's latency runs from the receiver entering it to it moving on, so LOCATE includes
+ * the time spent waiting for a transmission to start.
+ */
+public class TransmissionMetrics implements TransmissionMetricsMXBean {
+	public interface Listener {
+		//Called on the receiver's thread as it leaves "stage", which took "nanos"
+		void stageCompleted(ReceiverParser.Stage stage, long nanos);
+	}
+
+	private final AtomicLong symbolsSynthesized = new AtomicLong();
+	private final AtomicLong symbolsDecoded = new AtomicLong();
+	private final AtomicLong locatorResyncs = new AtomicLong();
+	private final AtomicLong repeatMarkers = new AtomicLong();
+	private final AtomicLong multiToneSymbols = new AtomicLong();
+
+	private final LatencyHistogram locateLatency = new LatencyHistogram();
+	private final LatencyHistogram determineLatency = new LatencyHistogram();
+	private final LatencyHistogram decodeLatency = new LatencyHistogram();
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private ObjectName registeredName;
+
+	public void addListener(Listener listener) { listeners.add(listener); }
+	public void removeListener(Listener listener) { listeners.remove(listener); }
+
+	@Override public long getSymbolsSynthesized() { return symbolsSynthesized.get(); }
+	@Override public long getSymbolsDecoded() { return symbolsDecoded.get(); }
+	@Override public long getLocatorResyncs() { return locatorResyncs.get(); }
+	@Override public long getRepeatMarkers() { return repeatMarkers.get(); }
+	@Override public long getMultiToneSymbols() { return multiToneSymbols.get(); }
+
+	@Override public LatencyHistogram.Snapshot getLocateLatency() { return locateLatency.snapshot(); }
+	@Override public LatencyHistogram.Snapshot getDetermineLatency() { return determineLatency.snapshot(); }
+	@Override public LatencyHistogram.Snapshot getDecodeLatency() { return decodeLatency.snapshot(); }
+
+	//The live histogram of "stage", null for FINISH
+	public LatencyHistogram getLatency(ReceiverParser.Stage stage) {
+		switch(stage) {
+		case LOCATE: return locateLatency;
+		case DETERMINE: return determineLatency;
+		case DECODE: return decodeLatency;
+		default: return null;
+		}
+	}
+
+	@Override
+	public void reset() {
+		symbolsSynthesized.set(0);
+		symbolsDecoded.set(0);
+		locatorResyncs.set(0);
+		repeatMarkers.set(0);
+		multiToneSymbols.set(0);
+		locateLatency.clear();
+		determineLatency.clear();
+		decodeLatency.clear();
+	}
+
+	void addSymbolsSynthesized(long symbols) { symbolsSynthesized.addAndGet(symbols); }
+
+	//A receiver's counts since it last added them
+	void addReceived(long decoded, long repeats, long multiTone) {
+		if(decoded != 0) symbolsDecoded.addAndGet(decoded);
+		if(repeats != 0) repeatMarkers.addAndGet(repeats);
+		if(multiTone != 0) multiToneSymbols.addAndGet(multiTone);
+	}
+
+	void locatorResynced() { locatorResyncs.incrementAndGet(); }
+
+	void stageCompleted(ReceiverParser.Stage stage, long nanos) {
+		LatencyHistogram latency = getLatency(stage);
+		if(latency == null) return;
+		latency.record(nanos);
+		for(Listener listener : listeners) {
+			listener.stageCompleted(stage, nanos);
+		}
+	}
+
+	/**
+	 * Registers this with the platform MBean server as main:type=TransmissionMetrics,name="name",
+	 * so it shows up in jconsole and the like.  Throws if the name is already taken.
+	 */
+	public synchronized ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("main:type=TransmissionMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		registeredName = objectName;
+		return objectName;
+	}
+
+	public synchronized void unregister() throws JMException {
+		if(registeredName == null) return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if(server.isRegistered(registeredName)) {
+			server.unregisterMBean(registeredName);
+		}
+		registeredName = null;
+	}
+}
@@ -0,0 +1,18 @@
+package main;
+
+/**
+ * What TransmissionMetrics shows over JMX, see TransmissionMetrics.register.
+ */
+public interface TransmissionMetricsMXBean {
+	long getSymbolsSynthesized();
+	long getSymbolsDecoded();
+	long getLocatorResyncs();
+	long getRepeatMarkers();
+	long getMultiToneSymbols();
+
+	LatencyHistogram.Snapshot getLocateLatency();
+	LatencyHistogram.Snapshot getDetermineLatency();
+	LatencyHistogram.Snapshot getDecodeLatency();
+
+	void reset();
+}
@@ -0,0 +1,182 @@
+package main;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a PCM WAV file block by block from a FileChannel, the counterpart of WavStreamWriter.
+ *
+ * Only the header is parsed up front; samples are read and converted to floats in [-1, 1]
+ * as they are asked for, so memory use only depends on the size of the read buffer.  The
+ * formats WavStreamWriter writes (16 and 24 bit integer, 32 bit float) can be read, plain
+ * or as WAVE_FORMAT_EXTENSIBLE.  A data chunk whose size was never patched in (the writer
+ * didn't get to close) is taken to run to the end of the file.
+ */
+public class WavStreamReader extends SampleSource implements Closeable {
+	private static final int RIFF = 0x46464952, WAVE = 0x45564157, FMT = 0x20746d66, DATA = 0x61746164;
+	private static final int FORMAT_PCM = 1, FORMAT_FLOAT = 3, FORMAT_EXTENSIBLE = 0xFFFE;
+	private static final int BUFFER_FRAMES = 4096;
+
+	private final FileChannel channel;
+	private int sampleRate;
+	private int numChannels;
+	private WavStreamWriter.SampleFormat format;
+	private int bytesPerSample;
+	private long numFrames;
+
+	private final ByteBuffer buffer;
+	private long framesRead;
+
+	public WavStreamReader(String filePath) throws IOException {
+		this(FileChannel.open(Paths.get(filePath), StandardOpenOption.READ));
+	}
+
+	public WavStreamReader(FileChannel channel) throws IOException {
+		this.channel = channel;
+		try {
+			readHeader();
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_FRAMES * numChannels * bytesPerSample);
+		this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+		this.buffer.limit(0);
+	}
+
+	@Override public int getSampleRate() { return sampleRate; }
+	@Override public int getNumChannels() { return numChannels; }
+	public WavStreamWriter.SampleFormat getSampleFormat() { return format; }
+	public long getNumFrames() { return numFrames; }
+	public long getFramesRead() { return framesRead; }
+
+	@Override
+	public int read(float[] samples, int offset, int frames) throws IOException {
+		frames = (int)Math.min(frames, numFrames - framesRead);
+		if(frames <= 0) {
+			return framesRead == numFrames ? -1 : 0;
+		}
+		for(int i = offset, end = offset + frames * numChannels; i < end; i++) {
+			if(!buffer.hasRemaining()) {
+				fill();
+			}
+			samples[i] = getSample();
+		}
+		framesRead += frames;
+		return frames;
+	}
+
+	private float getSample() {
+		switch(bytesPerSample) {
+		case 2:
+			return buffer.getShort() / (float)Short.MAX_VALUE;
+		case 3:
+			int value = (buffer.get() & 0xFF) | (buffer.getShort() << 8);
+			return value / (float)0x7FFFFF;
+		default:
+			return buffer.getFloat();
+		}
+	}
+
+	//Reads the next block of whole samples, at most what's left of the data chunk
+	private void fill() throws IOException {
+		buffer.clear();
+		long remaining = (numFrames - framesRead) * numChannels * bytesPerSample;
+		if(remaining < buffer.capacity()) {
+			buffer.limit((int)remaining);
+		}
+		while(buffer.position() < bytesPerSample || buffer.position() % bytesPerSample != 0) {
+			if(channel.read(buffer) < 0) {
+				throw new EOFException("The data chunk ends early, " + framesRead + " frames in");
+			}
+		}
+		buffer.limit(buffer.position() - buffer.position() % bytesPerSample);
+		buffer.position(0);
+	}
+
+	private void readHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(header, 0);
+		if(header.getInt(0) != RIFF || header.getInt(8) != WAVE) {
+			throw new IOException("Not a RIFF WAVE file");
+		}
+
+		boolean haveFormat = false;
+		long position = 12;
+		ByteBuffer chunk = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		while(true) {
+			chunk.clear();
+			readFully(chunk, position);
+			int id = chunk.getInt(0);
+			long size = chunk.getInt(4) & 0xFFFFFFFFL;
+			position += 8;
+
+			if(id == FMT) {
+				ByteBuffer fmt = ByteBuffer.allocate((int)Math.min(size, 64)).order(ByteOrder.LITTLE_ENDIAN);
+				readFully(fmt, position);
+				readFormat(fmt);
+				haveFormat = true;
+			} else if(id == DATA) {
+				if(!haveFormat) {
+					throw new IOException("The data chunk comes before the fmt chunk");
+				}
+				long available = channel.size() - position;
+				//0 or 0xFFFFFFFF when the sizes were never filled in
+				if(size == 0 || size > available) {
+					size = available;
+				}
+				numFrames = size / (numChannels * bytesPerSample);
+				channel.position(position);
+				return;
+			}
+			//Chunks are word aligned
+			position += size + (size & 1);
+		}
+	}
+
+	private void readFormat(ByteBuffer fmt) throws IOException {
+		if(fmt.limit() < 16) {
+			throw new IOException("The fmt chunk is too short");
+		}
+		int formatTag = fmt.getShort(0) & 0xFFFF;
+		numChannels = fmt.getShort(2) & 0xFFFF;
+		sampleRate = fmt.getInt(4);
+		int bitsPerSample = fmt.getShort(14) & 0xFFFF;
+		//The real format is the first two bytes of the sub format GUID
+		if(formatTag == FORMAT_EXTENSIBLE && fmt.limit() >= 26) {
+			formatTag = fmt.getShort(24) & 0xFFFF;
+		}
+
+		format = null;
+		for(WavStreamWriter.SampleFormat candidate : WavStreamWriter.SampleFormat.values()) {
+			if(candidate.formatTag == formatTag && candidate.getBitsPerSample() == bitsPerSample) {
+				format = candidate;
+			}
+		}
+		if(format == null || numChannels < 1) {
+			throw new IOException("Unsupported WAV format " + formatTag + " with " + bitsPerSample
+					+ " bits per sample and " + numChannels + " channels");
+		}
+		bytesPerSample = format.bytesPerSample;
+	}
+
+	private void readFully(ByteBuffer destination, long position) throws IOException {
+		while(destination.hasRemaining()) {
+			int n = channel.read(destination, position + destination.position());
+			if(n < 0) {
+				throw new EOFException("The WAV header is cut off");
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
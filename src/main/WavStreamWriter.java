@@ -0,0 +1,292 @@
+package main;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a PCM WAV file block by block straight to a FileChannel.
+ *
+ * The RIFF header is written up front with empty sizes, samples are converted
+ * and written as they arrive, and the sizes are patched in on close().  Memory use
+ * only depends on the size of the conversion buffer, not on the length of the file.
+ *
+ * Samples are floats in [-1, 1].  They can be written as 32 bit IEEE floats (the default)
+ * or as 16 or 24 bit integer PCM; integer samples are clipped and rounded, without dither,
+ * which is plenty for a handful of pure tones.  Integer PCM over 16 bits gets a
+ * WAVE_FORMAT_EXTENSIBLE fmt chunk, which is what readers expect for it.
+ *
+ * The RIFF sizes are unsigned 32 bit, so a file holds at most MAX_DATA_BYTES of samples; a
+ * write that would go past that throws instead of leaving a header that wrapped around.
+ */
+public class WavStreamWriter implements Closeable, SampleSink {
+	public enum SampleFormat {
+		PCM_16(2, 1), PCM_24(3, 1), FLOAT_32(4, 3);
+		
+		final int bytesPerSample;
+		final int formatTag; //WAVE_FORMAT_PCM or WAVE_FORMAT_IEEE_FLOAT
+		
+		SampleFormat(int bytesPerSample, int formatTag) {
+			this.bytesPerSample = bytesPerSample;
+			this.formatTag = formatTag;
+		}
+		
+		public int getBitsPerSample() { return bytesPerSample * 8; }
+	}
+	
+
+	//RIFF header, fmt chunk and data chunk header around an 18 or a 40 byte fmt
+	private static final int HEADER_SIZE = 46;
+	private static final int EXTENSIBLE_HEADER_SIZE = 68;
+	private static final int RIFF_SIZE_OFFSET = 4;
+	private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+	//KSDATAFORMAT_SUBTYPE_PCM without its first two bytes, which are the format tag
+	private static final byte[] SUBFORMAT_GUID_TAIL = {0x00, 0x00, 0x00, 0x00, 0x10, 0x00, (byte)0x80, 0x00,
+			0x00, (byte)0xAA, 0x00, 0x38, (byte)0x9B, 0x71};
+	private static final int BUFFER_FRAMES = 4096;
+	//The RIFF size (the header after its first 8 bytes, the data and its pad byte) has to fit in 32
+	//bits, whichever header the format gets
+	public static final long MAX_DATA_BYTES = 0xFFFFFFFFL - (EXTENSIBLE_HEADER_SIZE - 8) - 1;
+
+	private final FileChannel channel;
+	private final int sampleRate;
+	private final int numChannels;
+	private final SampleFormat format;
+	private final int bytesPerSample;
+	private final int headerSize;
+
+	private final ByteBuffer buffer;
+	private long dataBytes;
+
+	public WavStreamWriter(String filePath, int sampleRate, int numChannels) throws IOException {
+		this(filePath, sampleRate, numChannels, SampleFormat.FLOAT_32);
+	}
+
+	public WavStreamWriter(String filePath, int sampleRate, int numChannels, SampleFormat format) throws IOException {
+		this(FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), sampleRate, numChannels, format);
+	}
+
+	public WavStreamWriter(FileChannel channel, int sampleRate, int numChannels) throws IOException {
+		this(channel, sampleRate, numChannels, SampleFormat.FLOAT_32);
+	}
+
+	public WavStreamWriter(FileChannel channel, int sampleRate, int numChannels, SampleFormat format) throws IOException {
+		this.channel = channel;
+		this.sampleRate = sampleRate;
+		this.numChannels = numChannels;
+		this.format = format;
+		this.bytesPerSample = format.bytesPerSample;
+		this.headerSize = isExtensible(format) ? EXTENSIBLE_HEADER_SIZE : HEADER_SIZE;
+
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_FRAMES * numChannels * bytesPerSample);
+		this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+		this.dataBytes = 0;
+
+		//The writer owns the channel, so it's closed even if it never gets a header
+		try {
+			writeHeader();
+		} catch(IOException | RuntimeException e) {
+			try {
+				channel.close();
+			} catch(IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		}
+	}
+
+	public long getFramesWritten() { return dataBytes / (numChannels * bytesPerSample); }
+	public SampleFormat getSampleFormat() { return format; }
+
+	/**
+	 * Writes "length" interleaved samples starting at "offset".  32 bit floats are the same as
+	 * beads' WavFileReaderWriter writes for a 32 bit SampleAudioFormat.
+	 */
+	@Override
+	public void write(float[] samples, int offset, int length) throws IOException {
+		checkRoom(length);
+		for(int i = offset; i < offset + length; i++) {
+			if(!buffer.hasRemaining()) {
+				flush();
+			}
+			putSample(samples[i]);
+		}
+	}
+
+	/**
+	 * Writes frames [offset, offset + length) of "channels", one row per channel, interleaving
+	 * them as they go into the conversion buffer.  There must be a row for every channel.
+	 */
+	public void write(float[][] channels, int offset, int length) throws IOException {
+		if(channels.length != numChannels) {
+			throw new IllegalArgumentException("Writer has " + numChannels + " channels, got " + channels.length);
+		}
+		checkRoom((long)length * numChannels);
+		for(int i = offset; i < offset + length; i++) {
+			for(int c = 0; c < numChannels; c++) {
+				if(!buffer.hasRemaining()) {
+					flush();
+				}
+				putSample(channels[c][i]);
+			}
+		}
+	}
+
+	/**
+	 * Writes frames [offset, offset + length) of "channels" mixed down to one channel: the sum
+	 * of every row times "gain".  The writer must be mono.
+	 */
+	public void writeMixdown(float[][] channels, int offset, int length, float gain) throws IOException {
+		if(numChannels != 1) {
+			throw new IllegalArgumentException("A mixdown is written to a mono writer, this one has " + numChannels + " channels");
+		}
+		checkRoom(length);
+		for(int i = offset; i < offset + length; i++) {
+			float sum = 0;
+			for(float[] channel : channels) {
+				sum += channel[i];
+			}
+			if(!buffer.hasRemaining()) {
+				flush();
+			}
+			putSample(sum * gain);
+		}
+	}
+
+	/**
+	 * The gain that brings the loudest sample of the mixdown of "channels" to full scale, or 1
+	 * if they are silent.  Only reads the rows, so a mixdown needs no second buffer.
+	 */
+	public static float mixdownGain(float[][] channels) {
+		int length = channels.length == 0 ? 0 : channels[0].length;
+		float peak = 0;
+		for(int i = 0; i < length; i++) {
+			float sum = 0;
+			for(float[] channel : channels) {
+				sum += channel[i];
+			}
+			peak = Math.max(peak, Math.abs(sum));
+		}
+		return peak > 0 ? 1 / peak : 1;
+	}
+
+	//The buffer always holds whole samples, so there's room for one once it has any
+	private void putSample(float sample) {
+		switch(bytesPerSample) {
+		case 2:
+			buffer.putShort((short)toInt(sample, Short.MAX_VALUE));
+			break;
+		case 3:
+			int value = toInt(sample, 0x7FFFFF);
+			buffer.put((byte)value);
+			buffer.putShort((short)(value >> 8));
+			break;
+		default:
+			buffer.putFloat(sample);
+		}
+	}
+	
+	//Checked once per call rather than per sample, nothing is written if it doesn't fit
+	private void checkRoom(long samples) throws IOException {
+		if(dataBytes + buffer.position() + samples * bytesPerSample > MAX_DATA_BYTES) {
+			throw new IOException("A WAV file holds at most " + MAX_DATA_BYTES + " bytes of samples, "
+					+ (dataBytes + buffer.position()) + " are written and " + samples * bytesPerSample + " more don't fit");
+		}
+	}
+	
+	//Clipped to [-1, 1] and rounded to the nearest step
+	private static int toInt(float sample, int fullScale) {
+		if(sample >= 1) return fullScale;
+		if(sample <= -1) return -fullScale;
+		float scaled = sample * fullScale;
+		return (int)(scaled + (scaled >= 0 ? 0.5f : -0.5f));
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			dataBytes += channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private static boolean isExtensible(SampleFormat format) {
+		return format.formatTag == 1 && format.getBitsPerSample() > 16;
+	}
+
+	//The first numChannels speaker positions, front center for mono, none past the 18 defined ones
+	private static int channelMask(int numChannels) {
+		if(numChannels == 1) return 0x4;
+		return numChannels >= 18 ? 0 : (1 << numChannels) - 1;
+	}
+
+	private void writeHeader() throws IOException {
+		boolean extensible = headerSize == EXTENSIBLE_HEADER_SIZE;
+		ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(0x46464952); // "RIFF"
+		header.putInt(0);          // Patched on close
+		header.putInt(0x45564157); // "WAVE"
+		header.putInt(0x20746d66); // "fmt "
+		header.putInt(extensible ? 40 : 18);
+		header.putShort((short)(extensible ? FORMAT_EXTENSIBLE : format.formatTag));
+		header.putShort((short)numChannels);
+		header.putInt(sampleRate);
+		header.putInt(sampleRate * numChannels * bytesPerSample);
+		header.putShort((short)(numChannels * bytesPerSample));
+		header.putShort((short)(bytesPerSample * 8));
+		if(extensible) {
+			header.putShort((short)22);
+			header.putShort((short)(bytesPerSample * 8)); // Valid bits, all of them
+			header.putInt(channelMask(numChannels));
+			header.putShort((short)format.formatTag);     // Sub format GUID
+			header.put(SUBFORMAT_GUID_TAIL);
+		} else {
+			header.putShort((short)0); // No extension
+		}
+		header.putInt(0x61746164); // "data"
+		header.putInt(0);          // Patched on close
+		header.flip();
+
+		channel.position(0);
+		while(header.hasRemaining()) {
+			channel.write(header);
+		}
+	}
+
+	/**
+	 * Flushes any buffered samples and fills in the RIFF and data chunk sizes.
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+
+			//Data chunks must be word aligned
+			if(dataBytes % 2 == 1) {
+				channel.write(ByteBuffer.wrap(new byte[1]));
+			}
+
+			//Both are unsigned 32 bit, which checkRoom keeps them within
+			ByteBuffer size = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			size.putInt(0, unsigned32(headerSize - 8 + dataBytes + dataBytes % 2));
+			channel.write(size, RIFF_SIZE_OFFSET);
+			size.clear();
+			size.putInt(0, unsigned32(dataBytes));
+			channel.write(size, headerSize - 4); //The data chunk's size
+		} finally {
+			channel.close();
+		}
+	}
+
+	//The low 32 bits of "value", which must be in [0, 0xFFFFFFFF], as written to the file
+	private static int unsigned32(long value) {
+		if(value < 0 || value > 0xFFFFFFFFL) {
+			throw new IllegalStateException("RIFF size " + value + " doesn't fit in 32 bits");
+		}
+		return (int)value;
+	}
+}
@@ -0,0 +1,142 @@
+package main;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least recently used cache of rendered locator and descriptor sections.
+ *
+ * Both sections only depend on the tone plan, replication, sample rate, method and size, so
+ * a stream of small messages sent with the same parameters renders them once instead of for
+ * every message.  Each section remembers the oscillator phase it ends on, so the section that
+ * follows it starts exactly where a fresh render would have.
+ *
+ * The cache is bounded by the total number of samples it holds; the least recently used
+ * sections are dropped to make room.  It can be shared between encoders on different threads.
+ */
+public class WaveformCache {
+	//About 16MB of floats
+	public static final long DEFAULT_MAX_SAMPLES = 1 << 22;
+
+	private final long maxSamples;
+	private final LinkedHashMap<Key, Section> sections = new LinkedHashMap<Key, Section>(16, 0.75f, true);
+	private long cachedSamples;
+	private long hits;
+	private long misses;
+
+	public WaveformCache() {
+		this(DEFAULT_MAX_SAMPLES);
+	}
+
+	public WaveformCache(long maxSamples) {
+		this.maxSamples = maxSamples;
+	}
+
+	public synchronized int size() { return sections.size(); }
+	public synchronized long getCachedSamples() { return cachedSamples; }
+	public synchronized long getHits() { return hits; }
+	public synchronized long getMisses() { return misses; }
+
+	public synchronized void clear() {
+		sections.clear();
+		cachedSamples = 0;
+	}
+
+	synchronized Section get(Key key) {
+		Section section = sections.get(key);
+		if(section == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return section;
+	}
+
+	synchronized void put(Key key, Section section) {
+		//A section bigger than the whole cache would only evict everything else
+		if(section.samples.length > maxSamples) return;
+
+		Section previous = sections.put(key, section);
+		if(previous != null) {
+			cachedSamples -= previous.samples.length;
+		}
+		cachedSamples += section.samples.length;
+
+		Iterator<Map.Entry<Key, Section>> eldest = sections.entrySet().iterator();
+		while(cachedSamples > maxSamples) {
+			cachedSamples -= eldest.next().getValue().samples.length;
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * Rendered samples, which are shared and must not be modified, and the phase the
+	 * oscillator is left at after them.
+	 */
+	static final class Section {
+		final float[] samples;
+		final int endPhase;
+
+		Section(float[] samples, int endPhase) {
+			this.samples = samples;
+			this.endPhase = endPhase;
+		}
+	}
+
+	static final class Key {
+		private final boolean locator;
+		private final int transmissionSpeed;
+		private final float lowFrequency;
+		private final float sensitivity;
+		private final int replication;
+		private final int sampleRate;
+		private final int method;
+		private final int size;
+
+		private Key(boolean locator, int transmissionSpeed, float lowFrequency, float sensitivity,
+				int replication, int sampleRate, int method, int size) {
+			this.locator = locator;
+			this.transmissionSpeed = transmissionSpeed;
+			this.lowFrequency = lowFrequency;
+			this.sensitivity = sensitivity;
+			this.replication = replication;
+			this.sampleRate = sampleRate;
+			this.method = method;
+			this.size = size;
+		}
+
+		//The locator's tones are fixed, so only its timing matters
+		static Key locator(int replication, int sampleRate) {
+			return new Key(true, 0, 0, 0, replication, sampleRate, 0, 0);
+		}
+
+		static Key descriptor(int transmissionSpeed, float lowFrequency, float sensitivity,
+				int replication, int sampleRate, int method, int size) {
+			return new Key(false, transmissionSpeed, lowFrequency, sensitivity, replication, sampleRate, method, size);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Key)) return false;
+			Key other = (Key)o;
+			return locator == other.locator && transmissionSpeed == other.transmissionSpeed
+					&& Float.floatToIntBits(lowFrequency) == Float.floatToIntBits(other.lowFrequency)
+					&& Float.floatToIntBits(sensitivity) == Float.floatToIntBits(other.sensitivity)
+					&& replication == other.replication && sampleRate == other.sampleRate
+					&& method == other.method && size == other.size;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = locator ? 1 : 0;
+			hash = 31 * hash + transmissionSpeed;
+			hash = 31 * hash + Float.floatToIntBits(lowFrequency);
+			hash = 31 * hash + Float.floatToIntBits(sensitivity);
+			hash = 31 * hash + replication;
+			hash = 31 * hash + sampleRate;
+			hash = 31 * hash + method;
+			return 31 * hash + size;
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package testing;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import main.FftDemodulator;
+import main.GoertzelDemodulator;
+import main.OscillatorBank;
+import main.ReceiverParser;
+import main.SenderParser;
+import net.beadsproject.beads.data.audiofile.WavFileReaderWriter;
+
+public class DemodulatorTest extends TestCase {
+	GoertzelDemodulator demodulator;
+
+	public void setUp() {
+		demodulator = new GoertzelDemodulator(44100, 14000, 500, 3, 220);
+	}
+
+	public void testLocatorTones() {
+		OscillatorBank oscillators = new OscillatorBank(1, 44100);
+		float[] samples = new float[SenderParser.transmissionLocator.length * 441];
+		for(int i = 0; i < SenderParser.transmissionLocator.length; i++) {
+			oscillators.render(0, SenderParser.transmissionLocator[i], samples, i * 441, 441);
+		}
+
+		int[] codes = new int[demodulator.maxCodes(samples.length)];
+		int numCodes = demodulator.process(samples, 0, samples.length, codes, 0);
+
+		int[] expected = {1, 4, 2, 4, 1, 4};
+		assertEquals(expected.length, numCodes);
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], codes[i]);
+		}
+	}
+
+	public void testHeldCodeIsRepeated() {
+		OscillatorBank oscillators = new OscillatorBank(1, 44100);
+		float[] samples = new float[3 * 441];
+		oscillators.render(0, 14500, samples, 0, 441);
+		oscillators.render(0, 14500, samples, 441, 441);
+		oscillators.render(0, 15000, samples, 882, 441);
+
+		int[] codes = new int[demodulator.maxCodes(samples.length)];
+		assertEquals(2, demodulator.process(samples, 0, samples.length, codes, 0));
+
+		demodulator.reset();
+		demodulator.setSamplesPerSymbol(441);
+		assertEquals(3, demodulator.process(samples, 0, samples.length, codes, 0));
+		assertEquals(2, codes[0]);
+		assertEquals(2, codes[1]);
+		assertEquals(4, codes[2]);
+	}
+
+	public void testDemodulateAudioFile() throws Exception {
+		File file = File.createTempFile("waveswap", ".wav");
+		try {
+			new SenderParser().createAudioFile("TEST".getBytes(), file.getPath(), 1, 14000, 500, 441, SenderParser.DIRECT);
+			float[] samples = new WavFileReaderWriter().readAudioFile(file.getPath())[0];
+
+			demodulator.setSamplesPerSymbol(441);
+			int[] codes = new int[demodulator.maxCodes(samples.length)];
+			int numCodes = demodulator.process(samples, 0, samples.length, codes, 0);
+
+			ReceiverParser rp = new ReceiverParser();
+			rp.setLf(14000);
+			rp.setS(500);
+			rp.setTs(1);
+			rp.receiveAudio(Arrays.copyOf(codes, numCodes));
+
+			assertEquals(4, rp.getSize());
+			assertEquals("TEST", new String(rp.getData()));
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testFftLocatorTones() {
+		OscillatorBank oscillators = new OscillatorBank(1, 44100);
+		float[] samples = new float[SenderParser.transmissionLocator.length * 441];
+		for(int i = 0; i < SenderParser.transmissionLocator.length; i++) {
+			oscillators.render(0, SenderParser.transmissionLocator[i], samples, i * 441, 441);
+		}
+
+		//The same codes as the Goertzel bank, fed in uneven blocks
+		FftDemodulator fft = new FftDemodulator(44100, 14000, 500, 3, 220);
+		int[] codes = new int[fft.maxCodes(samples.length)];
+		int numCodes = 0;
+		for(int offset = 0, length = 1; offset < samples.length; offset += length, length = length * 7 % 500 + 1) {
+			length = Math.min(length, samples.length - offset);
+			numCodes += fft.process(samples, offset, length, codes, numCodes);
+		}
+		assertTrue(Arrays.equals(new int[] {1, 4, 2, 4, 1, 4}, Arrays.copyOf(codes, numCodes)));
+	}
+
+	public void testFftMultiTone() {
+		//31 tones from 1000Hz to 19000Hz, each symbol a random set of them played together
+		int numTones = 31;
+		int symbolLength = 882;
+		FftDemodulator fft = new FftDemodulator(44100, 1000, 600, numTones, symbolLength / 2);
+		OscillatorBank oscillators = new OscillatorBank(numTones, 44100);
+		Random random = new Random(25);
+		int[] sent = new int[200];
+		float[] samples = new float[sent.length * symbolLength];
+		for(int i = 0; i < sent.length; i++) {
+			//One to three tones, never the same set twice in a row
+			do {
+				sent[i] = 0;
+				for(int tones = 1 + random.nextInt(3); tones > 0; tones--) {
+					sent[i] |= 1 << random.nextInt(numTones);
+				}
+			} while(i > 0 && sent[i] == sent[i - 1]);
+			for(int k = 0; k < numTones; k++) {
+				if((sent[i] & (1 << k)) != 0) {
+					oscillators.renderAdd(k, 1000 + 600 * k, 1f / Integer.bitCount(sent[i]), samples, i * symbolLength, symbolLength);
+				}
+			}
+		}
+
+		int[] codes = new int[fft.maxCodes(samples.length)];
+		int numCodes = fft.process(samples, 0, samples.length, codes, 0);
+		assertTrue(Arrays.equals(sent, Arrays.copyOf(codes, numCodes)));
+	}
+}
@@ -0,0 +1,93 @@
+package testing;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import main.ForwardErrorCorrection;
+import main.ReedSolomon;
+
+public class ForwardErrorCorrectionTest extends TestCase {
+	Random random;
+
+	public void setUp() {
+		random = new Random(5);
+	}
+
+	public void testReedSolomonCorrectsHalfTheParity() {
+		ReedSolomon code = new ReedSolomon(10);
+		byte[] codeword = new byte[100];
+		random.nextBytes(codeword);
+		code.encode(codeword, 0, 90);
+		byte[] original = codeword.clone();
+
+		for(int i = 0; i < 5; i++) {
+			codeword[i * 17] ^= (byte)(1 + random.nextInt(255));
+		}
+		assertEquals(5, code.decode(codeword, 0, codeword.length));
+		assertTrue(Arrays.equals(original, codeword));
+		assertEquals(0, code.decode(codeword, 0, codeword.length));
+	}
+
+	public void testFailedDecodeLeavesCodeword() {
+		//Short codewords with more errors than the parity can fix, so decoding fails both on too
+		//high a locator degree and on roots the Chien search can't find
+		ReedSolomon code = new ReedSolomon(4);
+		byte[] codeword = new byte[12];
+		int failures = 0;
+		for(int trial = 0; trial < 20000; trial++) {
+			random.nextBytes(codeword);
+			code.encode(codeword, 0, codeword.length - 4);
+			for(int i = 3 + random.nextInt(4); i > 0; i--) {
+				codeword[random.nextInt(codeword.length)] ^= (byte)(1 + random.nextInt(255));
+			}
+			byte[] received = codeword.clone();
+			if(code.decode(codeword, 0, codeword.length) < 0) {
+				failures++;
+				assertTrue("trial " + trial, Arrays.equals(received, codeword));
+			}
+		}
+		assertTrue(failures > 0);
+	}
+
+	public void testLengths() {
+		for(int parity = 2; parity <= 64; parity += 2) {
+			for(int length = 0; length < 1000; length++) {
+				int encoded = ForwardErrorCorrection.encodedLength(length, parity);
+				assertEquals(length, ForwardErrorCorrection.payloadLength(encoded, parity));
+			}
+		}
+	}
+
+	public void testInterleavedBurst() {
+		byte[] payload = new byte[1000];
+		random.nextBytes(payload);
+		ForwardErrorCorrection fec = new ForwardErrorCorrection(16);
+		byte[] encoded = fec.encode(payload);
+
+		//5 codewords of 8 correctable bytes each, so a burst of 40 has to be spread out to be fixed
+		assertEquals(5, ForwardErrorCorrection.numCodewords(payload.length, 16));
+		for(int i = 500; i < 540; i++) {
+			encoded[i] = (byte)~encoded[i];
+		}
+
+		byte[] decoded = new byte[payload.length];
+		assertEquals(payload.length, fec.decode(encoded, encoded.length, decoded));
+		assertTrue(Arrays.equals(payload, decoded));
+		assertEquals(40, fec.getCorrectedBytes());
+		assertEquals(0, fec.getFailedCodewords());
+	}
+
+	public void testTooManyErrors() {
+		byte[] payload = new byte[200];
+		random.nextBytes(payload);
+		ForwardErrorCorrection fec = new ForwardErrorCorrection(8);
+		byte[] encoded = fec.encode(payload);
+		for(int i = 0; i < 20; i++) {
+			encoded[i * 10] ^= 0x5A;
+		}
+
+		fec.decode(encoded, encoded.length, new byte[payload.length]);
+		assertEquals(1, fec.getFailedCodewords());
+	}
+}
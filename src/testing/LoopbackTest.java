@@ -0,0 +1,169 @@
+package testing;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import main.ChannelModel;
+import main.FileReceiver;
+import main.GoertzelDemodulator;
+import main.LoopbackSimulator;
+import main.OscillatorBank;
+import main.SenderParser;
+import main.WavStreamWriter;
+
+public class LoopbackTest extends TestCase {
+	LoopbackSimulator simulator;
+	byte[] payload;
+
+	public void setUp() {
+		simulator = new LoopbackSimulator();
+		simulator.setTs(2);
+		simulator.setS(500);
+		simulator.setReplication(441);
+		payload = "Loopback test payload".getBytes();
+	}
+
+	public void testCleanChannel() {
+		LoopbackSimulator.Result result = simulator.run(payload);
+
+		assertTrue(result.isIntact());
+		assertEquals(0.0, result.getBitErrorRate());
+		assertTrue(result.getGoodput() > 0);
+	}
+
+	public void testImpairedChannel() {
+		ChannelModel room = new ChannelModel(SenderParser.DEFAULT_SAMPLE_RATE);
+		room.setNoiseSnr(12);
+		room.setFrequencyOffset(10);
+		room.setClockDriftPpm(50);
+		room.setEcho(300, 0.2f);
+		simulator.setChannel(room);
+
+		assertTrue(simulator.run(payload).isIntact());
+	}
+
+	public void testLostTransmission() {
+		//Nothing but noise gets through, which has to come back as a failed run, not an exception
+		ChannelModel channel = new ChannelModel(SenderParser.DEFAULT_SAMPLE_RATE);
+		channel.setNoiseSnr(-20);
+		simulator.setChannel(channel);
+
+		LoopbackSimulator.Result result = simulator.run(payload);
+		assertFalse(result.isIntact());
+		assertEquals(0.0, result.getGoodput());
+		assertEquals(1.0, result.getBitErrorRate());
+	}
+
+	public void testCompression() {
+		StringBuilder text = new StringBuilder();
+		for(int i = 0; i < 20; i++) {
+			text.append("Loopback test payload ").append(i).append('\n');
+		}
+		byte[] compressible = text.toString().getBytes();
+		LoopbackSimulator.Result plain = simulator.run(compressible);
+		simulator.setM(SenderParser.withCompression(SenderParser.DIRECT, SenderParser.COMPRESSION_DEFLATE));
+		LoopbackSimulator.Result compressed = simulator.run(compressible);
+
+		assertTrue(compressed.isIntact());
+		assertTrue(compressed.airtimeSeconds < plain.airtimeSeconds / 2);
+
+		//Random bytes don't compress, so they go out as they are
+		byte[] random = new byte[64];
+		new Random(3).nextBytes(random);
+		assertTrue(simulator.run(random).isIntact());
+	}
+
+	public void testSampleRates() {
+		//ts=1 only reaches the locator's 15000Hz
+		assertEquals(32000, SenderParser.getLowestSampleRate(1, 14000, 500, SenderParser.DIRECT));
+		assertEquals(44100, SenderParser.getLowestSampleRate(2, 14000, 500, SenderParser.DIRECT));
+
+		simulator.setTs(1);
+		for(int sampleRate : new int[] {32000, 48000}) {
+			simulator.setSampleRate(sampleRate);
+			//Symbols stay 10ms long
+			simulator.setReplication(sampleRate / 100);
+			LoopbackSimulator.Result result = simulator.run(payload);
+			assertTrue(result.isIntact());
+		}
+
+		try {
+			simulator.setSampleRate(12345);
+			fail();
+		} catch(IllegalArgumentException e) {
+		}
+	}
+
+	public void testFftDetection() {
+		simulator.setFftDetection(true);
+		ChannelModel room = new ChannelModel(SenderParser.DEFAULT_SAMPLE_RATE);
+		room.setNoiseSnr(12);
+		room.setEcho(300, 0.2f);
+		simulator.setChannel(room);
+		simulator.setTs(4);
+		assertTrue(simulator.run(payload).isIntact());
+
+		//CASCADE plays several tones per symbol, an echo of the last one is too much for either detector
+		simulator.setChannel(null);
+		simulator.setTs(3);
+		simulator.setM(SenderParser.CASCADE);
+		assertTrue(simulator.run(payload).isIntact());
+	}
+
+	public void testReceiveFile() throws Exception {
+		File wav = File.createTempFile("waveswap-loopback", ".wav");
+		File decoded = File.createTempFile("waveswap-loopback", ".bin");
+		try {
+			//More than one read block of data, with FEC and compression, at 16 bits
+			byte[] bytes = new byte[3000];
+			new Random(5).nextBytes(bytes);
+			Arrays.fill(bytes, 1000, 2000, (byte)'x');
+			SenderParser sp = new SenderParser();
+			sp.setSampleFormat(WavStreamWriter.SampleFormat.PCM_16);
+			int method = SenderParser.withCompression(SenderParser.withFec(SenderParser.DIRECT, 8), SenderParser.COMPRESSION_DEFLATE);
+			sp.createAudioFileStreaming(bytes, wav.getPath(), 4, 14000, 500, 441, method);
+
+			FileReceiver receiver = new FileReceiver(14000, 500, 441);
+			FileReceiver.Result result = receiver.receive(wav.getPath(), decoded.getPath());
+			assertTrue(result.finished);
+			assertEquals(bytes.length, result.bytesWritten);
+			assertTrue(Arrays.equals(bytes, Files.readAllBytes(decoded.toPath())));
+			assertTrue(result.getRealtimeFactor() > 1);
+
+			//CASCADE, then the same file cut off in the middle of the data
+			byte[] text = "CASCADE from a file".getBytes();
+			sp.createAudioFile(text, wav.getPath(), 3, 14000, 500, 220, SenderParser.CASCADE);
+			receiver = new FileReceiver(14000, 500, 220);
+			assertTrue(receiver.receive(wav.getPath(), decoded.getPath()).finished);
+			assertTrue(Arrays.equals(text, Files.readAllBytes(decoded.toPath())));
+
+			try(FileChannel channel = FileChannel.open(wav.toPath(), StandardOpenOption.WRITE)) {
+				channel.truncate(channel.size() / 2);
+			}
+			assertFalse(receiver.receive(wav.getPath(), decoded.getPath()).finished);
+		} finally {
+			wav.delete();
+			decoded.delete();
+		}
+	}
+
+	public void testFrequencyOffset() {
+		float[] samples = new float[4410];
+		new OscillatorBank(1, 44100).render(0, 15000, samples, 0, samples.length);
+
+		ChannelModel channel = new ChannelModel(44100);
+		channel.setFrequencyOffset(500);
+		float[] shifted = channel.apply(samples);
+
+		//15000 is tone 2 of this plan, 15500 tone 3
+		GoertzelDemodulator demodulator = new GoertzelDemodulator(44100, 14000, 500, 4, 441);
+		int[] codes = new int[demodulator.maxCodes(shifted.length)];
+		assertTrue(demodulator.process(shifted, 0, shifted.length, codes, 0) > 0);
+		assertEquals(8, codes[0]);
+	}
+}
@@ -1,10 +1,31 @@
 package testing;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 
 import junit.framework.TestCase;
+import main.ForwardErrorCorrection;
+import main.LocatorAutomaton;
 import main.ReceiverParser;
+import main.ReceiverSessionManager;
 import main.SenderParser;
+import main.SymbolEncoder;
+import main.TransmissionMetrics;
 
 public class ReceiverTest extends TestCase {
 	ReceiverParser rp;
@@ -39,6 +60,44 @@ public class ReceiverTest extends TestCase {
 		rp.locateAudio(test3);
 		
 		assertEquals(ReceiverParser.Stage.LOCATE, rp.getCurrentStage());
+		
+		//A false start that the real locator overlaps
+		rp.reset();
+		rp.locateAudio(new int[] {1, 4, 1, 4, 2, 4, 1, 4});
+		assertEquals(ReceiverParser.Stage.DETERMINE, rp.getCurrentStage());
+		
+		rp.reset();
+		rp.locateAudio(new int[] {1, 4, 2, 4, 1, 4, 2, 4, 1, 4});
+		assertEquals(ReceiverParser.Stage.DETERMINE, rp.getCurrentStage());
+		
+		//The same after the data, where a partial match has to carry on into the real locator
+		rp.reset();
+		byte[] payload = "overlap".getBytes();
+		int[] codes = transmissionCodes(payload, 2, SenderParser.DIRECT);
+		int[] withFalseStart = new int[codes.length + 3];
+		int trailer = codes.length - SenderParser.transmissionLocator.length;
+		System.arraycopy(codes, 0, withFalseStart, 0, trailer);
+		withFalseStart[trailer] = 1;
+		withFalseStart[trailer + 1] = 4;
+		withFalseStart[trailer + 2] = 2;
+		System.arraycopy(codes, trailer, withFalseStart, trailer + 3, SenderParser.transmissionLocator.length);
+		rp.receiveAudio(withFalseStart);
+		assertEquals(ReceiverParser.Stage.FINISH, rp.getCurrentStage());
+		assertTrue(Arrays.equals(payload, rp.getData()));
+	}
+	
+	public void testLocatorAutomaton() {
+		LocatorAutomaton automaton = new LocatorAutomaton(new float[] {1, 2, 1, 3}, new float[] {2, 1, 2}, new float[] {9});
+		float[] stream = {1, 2, 1, 2, 1, 3, 5, 2, 1, 2, 9};
+		//Every match and where it ends
+		int[] expected = {-1, -1, -1, 1, -1, 0, -1, -1, -1, 1, 2};
+		
+		int state = LocatorAutomaton.START;
+		for(int i = 0; i < stream.length; i++) {
+			state = automaton.next(state, automaton.symbolOf(stream[i]));
+			assertEquals("at " + i, expected[i], automaton.match(state));
+		}
+		assertEquals(automaton.getOtherSymbol(), automaton.symbolOf(5));
 	}
 	
 	public void testDecodeData() {
@@ -140,6 +199,342 @@ public class ReceiverTest extends TestCase {
 		assertEquals(4, data.length);
 	}
 	
+	public void testReceiveAudioInChunks() {
+		int[] test1 = {1, 4, 2, 4, 1, 4,
+				       2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1,
+			           2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 4,
+			           2, 4, 2, 1, 2, 4, 1, 2, 1, 4, 2, 4, 1, 2, 4, 2,
+			           4, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1,
+			           2, 4, 2, 1, 2, 1, 4, 1, 4, 1, 4, 1, 4, 2, 4, 2,
+			           1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2,
+			           1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2,
+			           1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 4, 2,
+			           1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2,
+			           1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 4, 2, 1,
+			           2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1,
+		               2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 4, 1,
+		               1, 4, 2, 4, 1, 4};
+		
+		for(int chunkSize = 1; chunkSize <= 7; chunkSize++) {
+			ReceiverParser chunked = new ReceiverParser();
+			chunked.setLf(14000);
+			chunked.setS(500);
+			chunked.setTs(1);
+			
+			for(int i = 0; i < test1.length; i += chunkSize) {
+				chunked.receiveAudio(test1, i, Math.min(chunkSize, test1.length - i));
+			}
+			
+			assertEquals(4, chunked.getSize());
+			assertEquals(3, ByteBuffer.wrap(chunked.getData()).getInt());
+			assertEquals(4, chunked.getData().length);
+			assertEquals(ReceiverParser.Stage.FINISH, chunked.getCurrentStage());
+		}
+	}
+	
+	public void testForwardErrorCorrection() {
+		byte[] payload = new byte[100];
+		new Random(9).nextBytes(payload);
+		int method = SenderParser.withFec(SenderParser.DIRECT, 16);
+		int[] codes = transmissionCodes(payload, 2, method);
+		
+		//Replace 6 data symbols with a tone that differs from both neighbours
+		int dataStart = SenderParser.transmissionLocator.length + 160;
+		for(int k = 0; k < 6; k++) {
+			int i = dataStart + 20 + k * 61;
+			int tone = 1;
+			while((1 << tone) == codes[i] || (1 << tone) == codes[i - 1] || (1 << tone) == codes[i + 1]) {
+				tone++;
+			}
+			codes[i] = 1 << tone;
+		}
+		
+		rp.receiveAudio(codes);
+		
+		assertEquals(ReceiverParser.Stage.FINISH, rp.getCurrentStage());
+		assertEquals(SenderParser.DIRECT, rp.getM());
+		assertEquals(16, rp.getFecParity());
+		assertEquals(payload.length, rp.getSize());
+		assertTrue(Arrays.equals(payload, rp.getData()));
+		assertTrue(rp.getCorrectedBytes() > 0);
+		assertEquals(0, rp.getFailedCodewords());
+		
+		//The counts are the last transmission's, a plain one after it has nothing corrected
+		rp.reset();
+		assertEquals(0, rp.getCorrectedBytes());
+		rp.receiveAudio(codes);
+		assertTrue(rp.getCorrectedBytes() > 0);
+		rp.reset();
+		rp.receiveAudio(transmissionCodes(payload, 2, SenderParser.DIRECT));
+		assertEquals(ReceiverParser.Stage.FINISH, rp.getCurrentStage());
+		assertEquals(0, rp.getFecParity());
+		assertEquals(0, rp.getCorrectedBytes());
+		assertEquals(0, rp.getFailedCodewords());
+	}
+	
+	public void testCompression() {
+		StringBuilder text = new StringBuilder();
+		for(int i = 0; i < 40; i++) {
+			text.append("{\"id\": ").append(i).append(", \"name\": \"sensor\", \"ok\": true}\n");
+		}
+		byte[] payload = text.toString().getBytes();
+		
+		for(int parity : new int[] {0, 16}) {
+			int method = SenderParser.withCompression(SenderParser.withFec(SenderParser.DIRECT, parity), SenderParser.COMPRESSION_DEFLATE);
+			setUp();
+			rp.receiveAudio(transmissionCodes(payload, 4, method));
+			
+			assertEquals(ReceiverParser.Stage.FINISH, rp.getCurrentStage());
+			assertEquals(SenderParser.COMPRESSION_DEFLATE, rp.getCompression());
+			assertFalse(rp.hasCompressionFailed());
+			assertEquals(payload.length, rp.getSize());
+			assertTrue(Arrays.equals(payload, rp.getData()));
+		}
+		
+		//A corrupted stream is reported rather than thrown
+		int method = SenderParser.withCompression(SenderParser.DIRECT, SenderParser.COMPRESSION_DEFLATE);
+		int[] codes = transmissionCodes(payload, 4, method);
+		int dataStart = SenderParser.transmissionLocator.length + 160;
+		codes[dataStart + 30] = codes[dataStart + 30] == 4 ? 8 : 4;
+		setUp();
+		rp.receiveAudio(codes);
+		assertTrue(rp.hasCompressionFailed());
+	}
+	
+	public void testSampleRate() {
+		SenderParser sp = new SenderParser();
+		sp.setSampleRate(48000);
+		byte[] payload = "48k".getBytes();
+		rp.receiveAudio(transmissionCodes(sp, payload, 2, SenderParser.DIRECT));
+		
+		assertEquals(ReceiverParser.Stage.FINISH, rp.getCurrentStage());
+		assertEquals(48000, rp.getSampleRate());
+		assertTrue(Arrays.equals(payload, rp.getData()));
+		
+		//Tones up to 16000Hz can't have been sent at 16000Hz
+		setUp();
+		sp.setSampleRate(16000);
+		rp.receiveAudio(Arrays.copyOf(transmissionCodes(sp, payload, 2, SenderParser.DIRECT), SenderParser.transmissionLocator.length + 160));
+		assertEquals(ReceiverParser.Stage.LOCATE, rp.getCurrentStage());
+	}
+	
+	public void testReset() {
+		rp.receiveAudio(transmissionCodes("first".getBytes(), 2, SenderParser.withFec(SenderParser.DIRECT, 8)));
+		assertEquals(ReceiverParser.Stage.FINISH, rp.getCurrentStage());
+		
+		rp.reset();
+		assertEquals(ReceiverParser.Stage.LOCATE, rp.getCurrentStage());
+		assertEquals(0, rp.getData().length);
+		assertEquals(0, rp.getSize());
+		assertEquals(0, rp.getFecParity());
+		
+		rp.receiveAudio(transmissionCodes("second".getBytes(), 1, SenderParser.DIRECT));
+		assertTrue(Arrays.equals("second".getBytes(), rp.getData()));
+	}
+	
+	public void testSessionManager() throws Exception {
+		final Map<Integer, List<String>> received = new ConcurrentHashMap<Integer, List<String>>();
+		ReceiverSessionManager<Integer> manager = new ReceiverSessionManager<Integer>(4, 14000, 500,
+				new ReceiverSessionManager.Listener<Integer>() {
+					@Override
+					public void transmissionReceived(Integer streamId, byte[] data, ReceiverParser receiver) {
+						//Sessions are single threaded, so each list only ever has one writer
+						List<String> messages = received.get(streamId);
+						if(messages == null) {
+							messages = new ArrayList<String>();
+							received.put(streamId, messages);
+						}
+						messages.add(new String(data));
+					}
+				});
+		
+		int streams = 8;
+		int[][] codes = new int[streams][];
+		for(int stream = 0; stream < streams; stream++) {
+			//Three transmissions back to back, with idle noise around them
+			int[] a = transmissionCodes(("stream " + stream + " a").getBytes(), 2, SenderParser.DIRECT);
+			int[] b = transmissionCodes(("stream " + stream + " b").getBytes(), 4, SenderParser.withFec(SenderParser.DIRECT, 4));
+			int[] c = transmissionCodes(("stream " + stream + " c").getBytes(), 1, SenderParser.DIRECT);
+			codes[stream] = new int[a.length + b.length + c.length + 30];
+			System.arraycopy(a, 0, codes[stream], 10, a.length);
+			System.arraycopy(b, 0, codes[stream], 20 + a.length, b.length);
+			System.arraycopy(c, 0, codes[stream], 30 + a.length + b.length, c.length);
+		}
+		
+		//Interleave the streams in chunks of random sizes
+		Random random = new Random(4);
+		int[] position = new int[streams];
+		for(boolean more = true; more; ) {
+			more = false;
+			for(int stream = 0; stream < streams; stream++) {
+				int length = Math.min(1 + random.nextInt(50), codes[stream].length - position[stream]);
+				if(length > 0) {
+					manager.submit(stream, codes[stream], position[stream], length);
+					position[stream] += length;
+					more = true;
+				}
+			}
+		}
+		for(int stream = 0; stream < streams; stream++) {
+			manager.close(stream);
+		}
+		manager.close();
+		assertTrue(manager.awaitTermination(30, TimeUnit.SECONDS));
+		
+		assertEquals(3 * streams, manager.getTransmissionsReceived());
+		for(int stream = 0; stream < streams; stream++) {
+			assertEquals(Arrays.asList("stream " + stream + " a", "stream " + stream + " b", "stream " + stream + " c"), received.get(stream));
+		}
+		assertEquals(0, manager.getActiveSessions());
+		assertTrue(manager.getIdleReceivers() > 0);
+	}
+
+	public void testSessionManagerListenerThrows() throws Exception {
+		final List<String> received = new CopyOnWriteArrayList<String>();
+		ReceiverSessionManager<Integer> manager = new ReceiverSessionManager<Integer>(2, 14000, 500,
+				new ReceiverSessionManager.Listener<Integer>() {
+					@Override
+					public void transmissionReceived(Integer streamId, byte[] data, ReceiverParser receiver) {
+						String message = new String(data);
+						if(message.equals("boom")) {
+							throw new IllegalStateException(message);
+						}
+						received.add(streamId + " " + message);
+					}
+				});
+		final List<RuntimeException> failures = new CopyOnWriteArrayList<RuntimeException>();
+		final CountDownLatch failed = new CountDownLatch(1);
+		manager.setFailureListener(new ReceiverSessionManager.FailureListener<Integer>() {
+			@Override
+			public void sessionFailed(Integer streamId, RuntimeException e) {
+				assertEquals(Integer.valueOf(0), streamId);
+				failures.add(e);
+				failed.countDown();
+			}
+		});
+
+		int[] boom = transmissionCodes("boom".getBytes(), 2, SenderParser.DIRECT);
+		int[] lost = transmissionCodes("lost".getBytes(), 2, SenderParser.DIRECT);
+		int[] boomThenLost = Arrays.copyOf(boom, boom.length + lost.length);
+		System.arraycopy(lost, 0, boomThenLost, boom.length, lost.length);
+		manager.submit(0, boomThenLost, 0, boomThenLost.length);
+		assertTrue(failed.await(30, TimeUnit.SECONDS));
+
+		//The failed session's queued chunks are dropped, but the stream isn't stuck: the next
+		//chunk starts a new session, and other streams never noticed
+		int[] after = transmissionCodes("after".getBytes(), 2, SenderParser.DIRECT);
+		manager.submit(0, after, 0, after.length);
+		manager.submit(1, after, 0, after.length);
+		manager.close(0);
+		manager.close(1);
+		manager.close();
+		assertTrue(manager.awaitTermination(30, TimeUnit.SECONDS));
+
+		assertEquals(1, manager.getSessionsFailed());
+		assertEquals(1, failures.size());
+		assertEquals("boom", failures.get(0).getMessage());
+		assertEquals(2, received.size());
+		assertTrue(received.containsAll(Arrays.asList("0 after", "1 after")));
+		assertEquals(0, manager.getActiveSessions());
+	}
+
+	public void testEmptyPayload() {
+		for(int method : new int[] {SenderParser.DIRECT, SenderParser.withFec(SenderParser.DIRECT, 4), SenderParser.CASCADE}) {
+			rp.reset();
+			rp.receiveAudio(transmissionCodes(new byte[0], 2, method));
+			assertEquals(ReceiverParser.Stage.FINISH, rp.getCurrentStage());
+			assertEquals(0, rp.getSize());
+			assertEquals(0, rp.getData().length);
+		}
+		
+		//A compressed payload can't be empty, a descriptor that says so is finished as a failed one
+		SenderParser sp = new SenderParser();
+		float[] locator = sp.createLocator(1);
+		float[] descriptor = sp.createDescriptor(2, 14000, 500, 1, SenderParser.withCompression(SenderParser.DIRECT, SenderParser.COMPRESSION_DEFLATE), 0);
+		int[] codes = new int[2 * locator.length + descriptor.length];
+		int index = 0;
+		for(float[] section : new float[][] {locator, descriptor, locator}) {
+			for(float frequency : section) {
+				codes[index++] = 1 << Math.round((frequency - 14000) / 500);
+			}
+		}
+		rp.reset();
+		rp.receiveAudio(codes);
+		assertEquals(ReceiverParser.Stage.FINISH, rp.getCurrentStage());
+		assertTrue(rp.hasCompressionFailed());
+		assertEquals(0, rp.getData().length);
+	}
+	
+	public void testMetrics() throws Exception {
+		TransmissionMetrics metrics = new TransmissionMetrics();
+		final List<ReceiverParser.Stage> stages = new ArrayList<ReceiverParser.Stage>();
+		metrics.addListener(new TransmissionMetrics.Listener() {
+			@Override
+			public void stageCompleted(ReceiverParser.Stage stage, long nanos) {
+				stages.add(stage);
+			}
+		});
+		
+		SenderParser sp = new SenderParser();
+		sp.setMetrics(metrics);
+		byte[] payload = new byte[4];
+		sp.createTransmission(payload, 2, 14000, 500, 1, SenderParser.DIRECT);
+		assertEquals(SymbolEncoder.numSymbols(payload.length, 2), metrics.getSymbolsSynthesized());
+		
+		rp.setMetrics(metrics);
+		//A locator followed by a descriptor that can't be right, then noise
+		SenderParser unplayable = new SenderParser();
+		unplayable.setSampleRate(16000);
+		rp.receiveAudio(Arrays.copyOf(transmissionCodes(unplayable, payload, 2, SenderParser.DIRECT), SenderParser.transmissionLocator.length + 160));
+		rp.receiveAudio(new int[] {6});
+		//Four zero bytes are sixteen 0 symbols at ts 2, every other one a repeat marker
+		rp.receiveAudio(transmissionCodes(payload, 2, SenderParser.DIRECT));
+		assertEquals(ReceiverParser.Stage.FINISH, rp.getCurrentStage());
+		
+		assertEquals(1, metrics.getLocatorResyncs());
+		assertEquals(1, metrics.getMultiToneSymbols());
+		assertEquals(16, metrics.getSymbolsDecoded());
+		assertTrue(metrics.getRepeatMarkers() >= 8);
+		assertEquals(Arrays.asList(ReceiverParser.Stage.LOCATE, ReceiverParser.Stage.DETERMINE, ReceiverParser.Stage.LOCATE,
+				ReceiverParser.Stage.DETERMINE, ReceiverParser.Stage.DECODE), stages);
+		assertEquals(2, metrics.getLocateLatency().getCount());
+		assertEquals(1, metrics.getDecodeLatency().getCount());
+		
+		ObjectName name = metrics.register("ReceiverTest");
+		try {
+			assertEquals(16L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "SymbolsDecoded"));
+			CompositeData decode = (CompositeData)ManagementFactory.getPlatformMBeanServer().getAttribute(name, "DecodeLatency");
+			assertEquals(1L, decode.get("count"));
+		} finally {
+			metrics.unregister();
+		}
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+	}
+	
+	private static int[] transmissionCodes(byte[] payload, int ts, int method) {
+		return transmissionCodes(new SenderParser(), payload, ts, method);
+	}
+	
+	//What a perfect demodulator would hear for a DIRECT transmission, one code per symbol
+	private static int[] transmissionCodes(SenderParser sp, byte[] payload, int ts, int method) {
+		byte[] data = SenderParser.compress(payload, SenderParser.getCompression(method));
+		if(SenderParser.getFecParity(method) != 0) {
+			data = new ForwardErrorCorrection(SenderParser.getFecParity(method)).encode(data);
+		}
+		float[] locator = sp.createLocator(1);
+		float[] descriptor = sp.createDescriptor(ts, 14000, 500, 1, method, data.length);
+		float[] frequencies = sp.createData(data, ts, 14000, 500, 1);
+		
+		int[] codes = new int[2 * locator.length + descriptor.length + frequencies.length];
+		int index = 0;
+		for(float[] section : new float[][] {locator, descriptor, frequencies, locator}) {
+			for(float frequency : section) {
+				codes[index++] = 1 << Math.round((frequency - 14000) / 500);
+			}
+		}
+		return codes;
+	}
+	
 	public void testDecodeAudio() {
 		int[] test1 = {2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1,
 			           2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 4,
@@ -159,6 +554,29 @@ public class ReceiverTest extends TestCase {
 		assertEquals(4, data.length);
 	}
 	
+	public void testDataBufferAndCreateFile() throws IOException {
+		int[] test1 = {2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1,
+			           2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 4};
+		
+		rp.setCurrentStage(ReceiverParser.Stage.DECODE);
+		rp.setSize(4);
+		rp.decodeAudio(test1, 0);
+		
+		ByteBuffer view = rp.getDataBuffer();
+		assertTrue(view.isReadOnly());
+		assertEquals(1, view.getInt());
+		
+		File file = File.createTempFile("waveswap", ".bin");
+		try {
+			rp.createFile(file.getPath());
+			byte[] written = Files.readAllBytes(file.toPath());
+			assertEquals(4, written.length);
+			assertEquals(1, ByteBuffer.wrap(written).getInt());
+		} finally {
+			file.delete();
+		}
+	}
+	
 	public void testDetermineAudio() {
 		int[] test1 = {2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1,
 				       2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 1, 2, 4,
@@ -0,0 +1,385 @@
+package testing;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+import main.BatchEncoder;
+import main.GoertzelDemodulator;
+import main.NullSampleSink;
+import main.ReceiverParser;
+import main.SampleSource;
+import main.SenderParser;
+import main.SymbolEncoder;
+import main.TransmissionEncoder;
+import main.WavStreamReader;
+import main.WavStreamWriter;
+import main.WaveformCache;
+import net.beadsproject.beads.data.audiofile.WavFileReaderWriter;
+
+public class SenderTest extends TestCase {
+	SenderParser sp;
+	File directory;
+
+	public void setUp() {
+		sp = new SenderParser();
+		directory = new File(System.getProperty("java.io.tmpdir"), "waveswap-test-" + System.nanoTime());
+		directory.mkdirs();
+	}
+
+	public void tearDown() {
+		for(File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	public void testCreateDataMatchesBitWalk() {
+		//Long enough to cross SenderParser's encode chunks, with a run of equal bytes for repeats
+		byte[] bytes = new byte[9001];
+		new Random(42).nextBytes(bytes);
+		Arrays.fill(bytes, 100, 200, (byte)0x55);
+
+		for(int ts = 1; ts <= 12; ts++) {
+			for(int replication : new int[] {1, 3}) {
+				float[] expected = createDataBitWalk(bytes, ts, 14000, 500, replication);
+				float[] actual = sp.createData(bytes, ts, 14000, 500, replication);
+				assertTrue("ts " + ts + ", replication " + replication, Arrays.equals(expected, actual));
+			}
+		}
+	}
+
+	public void testTransmissionSpeedLimits() {
+		byte[] bytes = new byte[64];
+		new Random(7).nextBytes(bytes);
+		//Too wide for a table, the frequencies are computed per symbol and still come out the same
+		for(int ts : new int[] {SymbolEncoder.MAX_TABLE_SPEED, SymbolEncoder.MAX_TABLE_SPEED + 1, SymbolEncoder.MAX_TRANSMISSION_SPEED}) {
+			assertTrue("ts " + ts, Arrays.equals(createDataBitWalk(bytes, ts, 100, 50, 2), sp.createData(bytes, ts, 100, 50, 2)));
+		}
+		try {
+			new SymbolEncoder(SymbolEncoder.MAX_TRANSMISSION_SPEED + 1);
+			fail();
+		} catch(IllegalArgumentException e) {
+		}
+		try {
+			SymbolEncoder.toneFrequencies(SymbolEncoder.MAX_TABLE_SPEED + 1, 100, 50);
+			fail();
+		} catch(IllegalArgumentException e) {
+		}
+	}
+
+	//createData as it was before it went table driven
+	private static float[] createDataBitWalk(byte[] bytes, int ts, float lf, float s, int replication) {
+		int numSymbols = (bytes.length * 8 + ts - 1) / ts;
+		float[] data = new float[numSymbols * replication];
+		float previousFrequency = -999999f;
+		int bitIndex = 0;
+		for(int symbol = 0; symbol < numSymbols; symbol++) {
+			float frequency = lf + s;
+			for(int i = 0; i < ts; i++, bitIndex++) {
+				int byteIndex = bitIndex / 8;
+				if(byteIndex < bytes.length && (bytes[byteIndex] & (0x80 >>> (bitIndex % 8))) != 0) {
+					frequency += Math.pow(2, ts - i - 1) * s;
+				}
+			}
+			float effectiveFrequency = frequency == previousFrequency ? lf : frequency;
+			previousFrequency = effectiveFrequency;
+			Arrays.fill(data, symbol * replication, (symbol + 1) * replication, effectiveFrequency);
+		}
+		return data;
+	}
+
+	public void testCreateAudioFileStreaming() throws Exception {
+		byte[] bytes = "TEST".getBytes();
+		String memoryPath = new File(directory, "memory.wav").getPath();
+		String streamingPath = new File(directory, "streaming.wav").getPath();
+
+		sp.createAudioFile(bytes, memoryPath, 1, 14000, 500, 100, SenderParser.DIRECT);
+		sp.createAudioFileStreaming(bytes, streamingPath, 1, 14000, 500, 100, SenderParser.DIRECT);
+
+		WavFileReaderWriter wfrw = new WavFileReaderWriter();
+		float[][] memory = wfrw.readAudioFile(memoryPath);
+		float[][] streaming = new WavFileReaderWriter().readAudioFile(streamingPath);
+
+		//2 locators, 160 descriptor symbols and 32 data symbols
+		assertEquals((2 * 6 + 160 + 32) * 100, streaming[0].length);
+		assertEquals(memory[0].length, streaming[0].length);
+		assertEquals(new File(memoryPath).length(), new File(streamingPath).length());
+
+		for(int i = 0; i < memory[0].length; i++) {
+			assertEquals(memory[0][i], streaming[0][i], 1e-6f);
+		}
+	}
+
+	public void testSampleSource() throws Exception {
+		byte[] bytes = "Pulled a frame at a time".getBytes();
+		float[] whole = sp.createTransmission(bytes, 2, 14000, 500, 37, SenderParser.DIRECT)[0];
+
+		//Odd read sizes so reads straddle the section and symbol boundaries
+		SampleSource source = sp.openTransmission(bytes, 2, 14000, 500, 37, SenderParser.DIRECT);
+		assertEquals(1, source.getNumChannels());
+		assertEquals(SenderParser.DEFAULT_SAMPLE_RATE, source.getSampleRate());
+		float[] pulled = new float[whole.length + 100];
+		int position = 0;
+		int n;
+		for(int frames = 1; (n = source.read(pulled, position, Math.min(frames, pulled.length - position))) >= 0; frames = frames * 3 % 1001 + 1) {
+			position += n;
+		}
+		assertEquals(whole.length, position);
+		for(int i = 0; i < whole.length; i++) {
+			assertEquals(whole[i], pulled[i], 1e-6f);
+		}
+		assertEquals(-1, source.read(pulled, 0, 10));
+
+		//Multi-channel methods come out interleaved
+		float[][] cascade = sp.createTransmission(bytes, 3, 14000, 500, 20, SenderParser.CASCADE);
+		source = sp.openTransmission(bytes, 3, 14000, 500, 20, SenderParser.CASCADE);
+		assertEquals(cascade.length, source.getNumChannels());
+		float[] frame = new float[cascade.length];
+		for(int i = 0; i < cascade[0].length; i++) {
+			assertEquals(1, source.read(frame, 0, 1));
+			for(int c = 0; c < cascade.length; c++) {
+				assertEquals(cascade[c][i], frame[c]);
+			}
+		}
+
+		//A mixdown is summed from the rows as it's read, not from a copy: changes made to the rows
+		//after opening show up in what's read
+		float[][] bits = sp.createTransmission(bytes, 3, 14000, 500, 20, SenderParser.BIT_BY_BIT);
+		float gain = WavStreamWriter.mixdownGain(bits);
+		sp.setChannelLayout(SenderParser.ChannelLayout.MIXDOWN);
+		source = sp.openTransmission(bits);
+		sp.setChannelLayout(SenderParser.ChannelLayout.INTERLEAVED);
+		assertEquals(1, source.getNumChannels());
+		for(float[] channel : bits) {
+			for(int i = 0; i < channel.length; i++) {
+				channel[i] *= 2;
+			}
+		}
+		float[] mono = new float[bits[0].length];
+		for(position = 0; (n = source.read(mono, position, Math.min(777, mono.length - position))) > 0; ) {
+			position += n;
+		}
+		assertEquals(mono.length, position);
+		for(int i = 0; i < mono.length; i++) {
+			assertEquals((bits[0][i] + bits[1][i] + bits[2][i]) * gain, mono[i], 1e-6f);
+		}
+
+		NullSampleSink sink = new NullSampleSink();
+		assertEquals(whole.length, new TransmissionEncoder(2, 14000, 500, 37, SenderParser.DIRECT).open(bytes).writeTo(sink));
+		assertEquals(whole.length, sink.getSamplesWritten());
+	}
+
+	public void testMultiChannelOutput() throws Exception {
+		byte[] bytes = {(byte)0xA5, 0x3C};
+		String interleavedPath = new File(directory, "interleaved.wav").getPath();
+		String mixdownPath = new File(directory, "mixdown.wav").getPath();
+
+		float[][] transmission = sp.createTransmission(bytes, 3, 14000, 500, 50, SenderParser.BIT_BY_BIT);
+		sp.createAudioFile(bytes, interleavedPath, 3, 14000, 500, 50, SenderParser.BIT_BY_BIT);
+		sp.setChannelLayout(SenderParser.ChannelLayout.MIXDOWN);
+		sp.createAudioFile(bytes, mixdownPath, 3, 14000, 500, 50, SenderParser.BIT_BY_BIT);
+
+		float[][] interleaved = new WavFileReaderWriter().readAudioFile(interleavedPath);
+		assertEquals(3, interleaved.length);
+		for(int c = 0; c < 3; c++) {
+			assertTrue(Arrays.equals(transmission[c], interleaved[c]));
+		}
+
+		float[][] mixdown = new WavFileReaderWriter().readAudioFile(mixdownPath);
+		assertEquals(1, mixdown.length);
+		float gain = WavStreamWriter.mixdownGain(transmission);
+		float peak = 0;
+		for(int i = 0; i < mixdown[0].length; i++) {
+			assertEquals((transmission[0][i] + transmission[1][i] + transmission[2][i]) * gain, mixdown[0][i], 1e-6f);
+			peak = Math.max(peak, Math.abs(mixdown[0][i]));
+		}
+		assertEquals(1, peak, 1e-6f);
+	}
+
+	public void testSampleFormats() throws Exception {
+		byte[] bytes = "Sample formats".getBytes();
+		float[] samples = sp.createTransmission(bytes, 2, 14000, 500, 30, SenderParser.DIRECT)[0];
+		long floatLength = 0;
+
+		for(WavStreamWriter.SampleFormat format : WavStreamWriter.SampleFormat.values()) {
+			String path = new File(directory, format + ".wav").getPath();
+			sp.setSampleFormat(format);
+			sp.createAudioFileStreaming(bytes, path, 2, 14000, 500, 30, SenderParser.DIRECT);
+
+			float[] read;
+			if(format == WavStreamWriter.SampleFormat.PCM_24) {
+				//WAVE_FORMAT_EXTENSIBLE, which beads can't read
+				ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(Paths.get(path)), 0, 68).order(ByteOrder.LITTLE_ENDIAN);
+				assertEquals(40, header.getInt(16));
+				assertEquals(0xFFFE, header.getShort(20) & 0xFFFF);
+				assertEquals(24, header.getShort(34));
+				assertEquals(24, header.getShort(38));
+				assertEquals(0x4, header.getInt(40));
+				assertEquals(1, header.getShort(44));
+				assertEquals(0x719B3800, header.getInt(56)); //The end of the PCM GUID
+				assertEquals(samples.length * 3, header.getInt(64));
+				try (WavStreamReader reader = new WavStreamReader(path)) {
+					assertEquals(format, reader.getSampleFormat());
+					assertEquals(samples.length, reader.getNumFrames());
+					read = new float[samples.length];
+					assertEquals(samples.length, reader.read(read, 0, samples.length));
+				}
+			} else {
+				read = new WavFileReaderWriter().readAudioFile(path)[0];
+			}
+			assertEquals(samples.length, read.length);
+			//Half a step of rounding, plus the reader's own scaling
+			float tolerance = format == WavStreamWriter.SampleFormat.FLOAT_32 ? 1e-6f : 2f / (1 << (format.getBitsPerSample() - 1));
+			for(int i = 0; i < samples.length; i++) {
+				assertEquals(samples[i], read[i], tolerance);
+			}
+			if(format == WavStreamWriter.SampleFormat.FLOAT_32) {
+				floatLength = new File(path).length();
+			}
+		}
+		//Half the data, the header stays the same
+		assertTrue(new File(directory, "PCM_16.wav").length() < floatLength * 0.51);
+	}
+
+	public void testWriterClosesChannelOnFailedHeader() throws Exception {
+		File file = new File(directory, "readonly.wav");
+		Files.write(file.toPath(), new byte[0]);
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			new WavStreamWriter(channel, SenderParser.DEFAULT_SAMPLE_RATE, 1);
+			fail();
+		} catch(NonWritableChannelException e) {
+		}
+		assertFalse(channel.isOpen());
+	}
+
+	public void testWaveformCache() {
+		SenderParser uncached = new SenderParser();
+		uncached.setWaveformCache(null);
+		WaveformCache cache = new WaveformCache(6 * 100 + 2 * 160 * 100);
+		sp.setWaveformCache(cache);
+
+		for(String message : new String[] {"one", "two", "three", "one", "four!"}) {
+			for(int method : new int[] {SenderParser.DIRECT, SenderParser.CASCADE}) {
+				float[][] expected = uncached.createTransmission(message.getBytes(), 2, 14000, 500, 100, method);
+				float[][] actual = sp.createTransmission(message.getBytes(), 2, 14000, 500, 100, method);
+				assertTrue(Arrays.deepEquals(expected, actual));
+			}
+		}
+		assertTrue(cache.getHits() > cache.getMisses());
+		//The locator and two descriptors fit, older descriptors are evicted
+		assertEquals(3, cache.size());
+		assertTrue(cache.getCachedSamples() <= 6 * 100 + 2 * 160 * 100);
+	}
+
+	public void testBatchEncoding() throws Exception {
+		TransmissionEncoder direct = new TransmissionEncoder(2, 14000, 500, 50, SenderParser.DIRECT);
+		TransmissionEncoder cascade = new TransmissionEncoder(3, 14000, 500, 50, SenderParser.CASCADE)
+				.withSampleFormat(WavStreamWriter.SampleFormat.PCM_16);
+		List<BatchEncoder.Job> jobs = new ArrayList<BatchEncoder.Job>();
+		for(int i = 0; i < 24; i++) {
+			byte[] payload = ("Batch message " + i).getBytes();
+			jobs.add(new BatchEncoder.Job(payload, new File(directory, i + ".wav").getPath(), i % 2 == 0 ? direct : cascade));
+		}
+		//Nowhere to write it
+		jobs.add(new BatchEncoder.Job(new byte[1], new File(directory, "missing/x.wav").getPath(), direct));
+
+		BatchEncoder batch = new BatchEncoder(4);
+		BatchEncoder.Report report;
+		try {
+			report = batch.encodeAll(jobs);
+		} finally {
+			batch.close();
+		}
+
+		assertEquals(jobs.size(), report.results.size());
+		assertEquals(1, report.getFailures());
+		assertTrue(report.getJobsPerSecond() > 0);
+		for(int i = 0; i < 24; i++) {
+			BatchEncoder.Job job = jobs.get(i);
+			assertTrue(report.results.get(i).succeeded());
+			assertSame(job, report.results.get(i).job);
+			//Same file as one encoder writing them one at a time
+			String expectedPath = new File(directory, "expected.wav").getPath();
+			SenderParser sender = new SenderParser();
+			sender.setSampleFormat(job.encoder.getSampleFormat());
+			sender.createAudioFileStreaming(job.payload, expectedPath, job.encoder.getTs(), 14000, 500, 50, job.encoder.getM());
+			assertTrue(Arrays.equals(Files.readAllBytes(Paths.get(expectedPath)), Files.readAllBytes(Paths.get(job.filePath))));
+		}
+	}
+
+	public void testParallelSynthesisMatchesSequential() throws Exception {
+		byte[] bytes = new byte[2000];
+		new Random(7).nextBytes(bytes);
+		String sequentialPath = new File(directory, "sequential.wav").getPath();
+		String parallelPath = new File(directory, "parallel.wav").getPath();
+
+		sp.createAudioFile(bytes, sequentialPath, 2, 14000, 500, 37, SenderParser.DIRECT);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			//Small segments so that plenty of them start in the middle of a symbol
+			sp.setParallelSynthesis(pool, 1000);
+			sp.createAudioFile(bytes, parallelPath, 2, 14000, 500, 37, SenderParser.DIRECT);
+		} finally {
+			pool.shutdown();
+		}
+
+		assertTrue(Arrays.equals(Files.readAllBytes(Paths.get(sequentialPath)), Files.readAllBytes(Paths.get(parallelPath))));
+	}
+
+	public void testParseFileStreamsInput() throws Exception {
+		//More than one read chunk, and ts 3 so that symbols straddle the chunk boundary
+		byte[] bytes = new byte[70001];
+		new Random(11).nextBytes(bytes);
+		File input = new File(directory, "input.bin");
+		Files.write(input.toPath(), bytes);
+		String parsedPath = new File(directory, "parsed.wav").getPath();
+		String streamingPath = new File(directory, "streaming.wav").getPath();
+
+		sp.parseFile(input, parsedPath, 3, 14000, 500, 2, SenderParser.DIRECT);
+		sp.createAudioFileStreaming(bytes, streamingPath, 3, 14000, 500, 2, SenderParser.DIRECT);
+
+		assertTrue(Arrays.equals(Files.readAllBytes(Paths.get(streamingPath)), Files.readAllBytes(Paths.get(parsedPath))));
+	}
+
+	public void testCascadeRoundTrip() throws Exception {
+		byte[] bytes = "CASCADE plays every bit at once".getBytes();
+		String path = new File(directory, "cascade.wav").getPath();
+		int transmissionSpeed = 4;
+
+		sp.createAudioFile(bytes, path, transmissionSpeed, 14000, 500, 441, SenderParser.CASCADE);
+		float[] samples = new WavFileReaderWriter().readAudioFile(path)[0];
+
+		//2 locators, 160 descriptor symbols and 8 / 4 = 2 data symbols per byte
+		assertEquals((2 * 6 + 160 + bytes.length * 2) * 441, samples.length);
+
+		//The locator and descriptor use the lowest 3 tones of the same plan
+		GoertzelDemodulator demodulator = new GoertzelDemodulator(44100, 14000, 500,
+				SenderParser.getNumTones(transmissionSpeed, SenderParser.CASCADE), 220);
+		demodulator.setSamplesPerSymbol(441);
+		int[] codes = new int[demodulator.maxCodes(samples.length)];
+		int numCodes = demodulator.process(samples, 0, samples.length, codes, 0);
+
+		ReceiverParser rp = new ReceiverParser();
+		rp.setLf(14000);
+		rp.setS(500);
+		rp.setTs(1);
+		rp.receiveAudio(Arrays.copyOf(codes, numCodes));
+
+		assertEquals(SenderParser.CASCADE, rp.getM());
+		assertEquals(transmissionSpeed, rp.getTs());
+		assertEquals(new String(bytes), new String(rp.getData()));
+	}
+}